@@ -1,6 +1,7 @@
 package com.cayden.sample.account;
 
 
+import com.google.protobuf.ByteString;
 import com.cayden.sample.common.FabricType;
 import com.webank.wecross.stub.Account;
 import org.hyperledger.fabric.sdk.User;
@@ -12,6 +13,7 @@ public class FabricAccount implements Account {
 
     private User user;
     private SigningIdentity signer;
+    private ByteString serializedIdentity;
 
     public FabricAccount(User user) throws Exception {
         this.setUser(user);
@@ -19,6 +21,7 @@ public class FabricAccount implements Account {
         // ECDSA secp256r1
         this.signer =
                 IdentityFactory.getSigningIdentity(CryptoSuite.Factory.getCryptoSuite(), user);
+        this.serializedIdentity = signer.createSerializedIdentity().toByteString();
     }
 
     public byte[] sign(byte[] message) throws Exception {
@@ -37,7 +40,11 @@ public class FabricAccount implements Account {
 
     @Override
     public String getIdentity() {
-        return signer.createSerializedIdentity().toByteString().toStringUtf8();
+        return serializedIdentity.toStringUtf8();
+    }
+
+    public ByteString getSerializedIdentity() {
+        return serializedIdentity;
     }
 
     public void setUser(User user) {
@@ -15,6 +15,8 @@ public class FabricType {
         public static final int FABRIC_GET_BLOCK_NUMBER = 2004;
         public static final int FABRIC_GET_BLOCK_HEADER = 2005;
         public static final int FABRIC_GET_TRANSACTION = 2006;
+        public static final int FABRIC_SUBMIT_TRANSACTION_ORDERER = 2007;
+        public static final int FABRIC_WAIT_TRANSACTION_COMMIT = 2008;
     }
 
     public static class Resource {
@@ -27,6 +29,13 @@ public class FabricType {
         public static final String CHAINCODE_NAME = "CHAINCODE_NAME";
         public static final String CHAINCODE_TYPE = "CHAINCODE_TYPE";
         public static final String PROPOSAL_WAIT_TIME = "PROPOSAL_WAIT_TIME";
+        public static final String TRANSACTION_TIMEOUT = "TRANSACTION_TIMEOUT";
+        public static final String MVCC_RETRIES = "MVCC_RETRIES";
+        public static final String MVCC_RETRY_BACKOFF = "MVCC_RETRY_BACKOFF";
+        public static final String COALESCE_METHOD = "COALESCE_METHOD";
+        public static final String COALESCE_BATCH_METHOD = "COALESCE_BATCH_METHOD";
+        public static final String COALESCE_WINDOW = "COALESCE_WINDOW";
+        public static final String COALESCE_SIZE = "COALESCE_SIZE";
     }
 
     public static class TransactionResponseStatus {
@@ -40,5 +49,8 @@ public class FabricType {
         public static final int INTERNAL_ERROR = 3101;
         public static final int ILLEGAL_REQUEST_TYPE = 3102;
         public static final int RESOURCE_NOT_FOUND = 3103;
+        public static final int DEADLINE_EXCEEDED = 3104;
+        // Sent to the orderer, may still commit; the txID is the hash of the response
+        public static final int FABRIC_COMMIT_UNKNOWN = 3105;
     }
 }
@@ -0,0 +1,62 @@
+package com.cayden.sample.fabric;
+
+/**
+ * Additive increase, multiplicative decrease window of in-flight submissions. Every ack without
+ * queueing delay grows the window by about one per round-trip, an ack much slower than the
+ * fastest recent one or a congestion status halves it, at most once per round-trip.
+ */
+public class AimdWindow {
+    private static final double INITIAL_SIZE = 16;
+    private static final double MIN_SIZE = 1;
+    private static final double MAX_SIZE = 4096;
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double LATENCY_TOLERANCE = 2.0; // ack latency / base latency
+    private static final long MIN_QUEUE_DELAY = 5; // ms, ignore jitter on very fast acks
+    private static final long BASE_LATENCY_PERIOD = 30000; // ms, base latency is relearned
+    private static final double ALPHA = 0.2;
+
+    private double size = INITIAL_SIZE;
+    private long baseLatency = -1;
+    private long baseLatencyTime = 0;
+    private double smoothedLatency = 0;
+    private long lastDecreaseTime = 0;
+
+    public synchronized int getSize() {
+        return (int) size;
+    }
+
+    public synchronized void onAck(long latency) {
+        long now = System.currentTimeMillis();
+        if (baseLatency < 0
+                || latency < baseLatency
+                || now - baseLatencyTime > BASE_LATENCY_PERIOD) {
+            baseLatency = latency;
+            baseLatencyTime = now;
+        }
+        smoothedLatency =
+                smoothedLatency == 0 ? latency : ALPHA * latency + (1 - ALPHA) * smoothedLatency;
+
+        if (latency > baseLatency * LATENCY_TOLERANCE && latency > baseLatency + MIN_QUEUE_DELAY) {
+            decrease(now);
+        } else {
+            size = Math.min(size + 1 / size, MAX_SIZE);
+        }
+    }
+
+    public synchronized void onCongestion() {
+        decrease(System.currentTimeMillis());
+    }
+
+    public synchronized long getSmoothedLatency() {
+        return (long) smoothedLatency;
+    }
+
+    private void decrease(long now) {
+        // Acks of one round-trip all saw the same congestion, only react to the first of them
+        if (now - lastDecreaseTime < smoothedLatency) {
+            return;
+        }
+        lastDecreaseTime = now;
+        size = Math.max(size * DECREASE_FACTOR, MIN_SIZE);
+    }
+}
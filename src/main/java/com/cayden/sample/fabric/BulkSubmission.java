@@ -0,0 +1,198 @@
+package com.cayden.sample.fabric;
+
+import com.cayden.sample.common.FabricType;
+import com.webank.wecross.stub.Request;
+import com.webank.wecross.stub.ResourceInfo;
+import com.webank.wecross.stub.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Feeds already signed envelopes of one resource to the orderer, keeping at most maxInFlight of
+ * them between broadcast and commit. A commit frees a slot for the next envelope, so the iterator
+ * is consumed at the pace the channel commits, and a source of millions of envelopes is never held
+ * in memory. Each envelope goes the way of a FABRIC_SENDTRANSACTION_ORDERER request, with its
+ * transaction timeout counted from the moment it is sent.
+ *
+ * <p>Only one thread pulls from the iterator at a time, a slot freed while it pulls is picked up
+ * by the same thread.
+ */
+public class BulkSubmission {
+    private Logger logger = LoggerFactory.getLogger(BulkSubmission.class);
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1000;
+
+    private ChaincodeConnection chaincodeConnection;
+    private ResourceInfo resourceInfo;
+    private Iterator<byte[]> envelopes;
+    private Callback callback;
+    private Executor callbackExecutor;
+    private int maxInFlight;
+
+    private long next = 0;
+    private long answered = 0; // callbacks returned, onFinished() comes after all of them
+    private int inFlight = 0;
+    private long failed = 0;
+    private boolean pulling = false;
+    private boolean exhausted = false;
+    private boolean finished = false;
+
+    public BulkSubmission(
+            ChaincodeConnection chaincodeConnection,
+            Iterator<byte[]> envelopes,
+            int maxInFlight,
+            Executor callbackExecutor,
+            Callback callback) {
+        this.chaincodeConnection = chaincodeConnection;
+        this.resourceInfo = chaincodeConnection.getResourceInfo();
+        this.envelopes = envelopes;
+        this.maxInFlight = Math.max(maxInFlight, 1);
+        this.callbackExecutor = callbackExecutor;
+        this.callback = callback;
+    }
+
+    public void start() {
+        pull();
+    }
+
+    private void pull() {
+        synchronized (this) {
+            if (pulling) {
+                return;
+            }
+            pulling = true;
+        }
+
+        while (true) {
+            synchronized (this) {
+                if (exhausted || inFlight >= maxInFlight) {
+                    pulling = false;
+                    break;
+                }
+                inFlight++;
+            }
+
+            byte[] data = null;
+            try {
+                if (envelopes.hasNext()) {
+                    data = envelopes.next();
+                }
+            } catch (Exception e) {
+                logger.warn("Bulk submission of {} stopped, read envelope exception: ", name(), e);
+            }
+            if (data == null) {
+                synchronized (this) {
+                    inFlight--;
+                    exhausted = true;
+                }
+                continue;
+            }
+
+            long index;
+            synchronized (this) {
+                index = next++;
+            }
+            send(index, data);
+        }
+        finishIfDone();
+    }
+
+    private void send(long index, byte[] data) {
+        OrdererRequest ordererRequest;
+        try {
+            Request request = new Request();
+            request.setType(FabricType.ConnectionMessage.FABRIC_SENDTRANSACTION_ORDERER);
+            request.setResourceInfo(resourceInfo);
+            request.setData(data);
+            ordererRequest = OrdererRequest.from(request);
+        } catch (Exception e) {
+            onResponse(
+                    index,
+                    null,
+                    FabricConnectionResponse.build()
+                            .errorCode(FabricType.TransactionResponseStatus.ILLEGAL_REQUEST_TYPE)
+                            .errorMessage("Decode envelope " + index + " exception: " + e));
+            return;
+        }
+
+        String txID = ordererRequest.getTxID();
+        chaincodeConnection.asyncSendTransactionOrderer(
+                ordererRequest,
+                new SendTransactionOrdererCallback() {
+                    @Override
+                    public void onResponse(Response response) {
+                        BulkSubmission.this.onResponse(index, txID, response);
+                    }
+                });
+    }
+
+    private void onResponse(long index, String txID, Response response) {
+        synchronized (this) {
+            inFlight--;
+            if (response.getErrorCode() != FabricType.TransactionResponseStatus.SUCCESS) {
+                failed++;
+            }
+        }
+
+        deliver(
+                () -> {
+                    try {
+                        callback.onResponse(index, txID, response);
+                    } finally {
+                        synchronized (this) {
+                            answered++;
+                        }
+                        finishIfDone();
+                    }
+                });
+        pull();
+    }
+
+    private void finishIfDone() {
+        long submitted;
+        long failedCount;
+        synchronized (this) {
+            if (finished || !exhausted || answered < next) {
+                return;
+            }
+            finished = true;
+            submitted = next;
+            failedCount = failed;
+        }
+
+        logger.info(
+                "Bulk submission of {} finished, {} envelopes, {} failed",
+                name(),
+                submitted,
+                failedCount);
+        deliver(() -> callback.onFinished(submitted, failedCount));
+    }
+
+    private void deliver(Runnable runnable) {
+        try {
+            callbackExecutor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            runnable.run();
+        }
+    }
+
+    private String name() {
+        return resourceInfo.getName();
+    }
+
+    /** Results of a bulk submission, called on the completion stage. */
+    public abstract static class Callback {
+        /**
+         * The commit response of the index-th envelope, in commit order. txID is null if the
+         * envelope could not be decoded.
+         */
+        public abstract void onResponse(long index, String txID, Response response);
+
+        /** All envelopes answered, submitted counts those taken from the iterator. */
+        public abstract void onFinished(long submitted, long failed);
+    }
+}
@@ -0,0 +1,78 @@
+package com.cayden.sample.fabric;
+
+import com.google.protobuf.ByteString;
+import com.webank.wecross.stub.Connection;
+import com.webank.wecross.stub.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Attaches identical concurrent chaincode queries to the one already in flight. Two queries are
+ * identical if they target the same resource, are signed by the same creator and carry the same
+ * chaincode input; nonce, txID and timestamp differ per request and are ignored.
+ */
+public class CallCoalescer {
+    private Logger logger = LoggerFactory.getLogger(CallCoalescer.class);
+
+    private Map<ByteString, List<Connection.Callback>> inFlight = new HashMap<>();
+
+    /**
+     * Register the callback of a query.
+     *
+     * @return true if the caller must send the query and complete() it, false if it is attached
+     *     to an identical query in flight
+     */
+    public boolean join(ByteString key, Connection.Callback callback) {
+        synchronized (inFlight) {
+            List<Connection.Callback> waiters = inFlight.get(key);
+            if (waiters != null) {
+                waiters.add(callback);
+                return false;
+            }
+
+            waiters = new LinkedList<>();
+            waiters.add(callback);
+            inFlight.put(key, waiters);
+            return true;
+        }
+    }
+
+    public void complete(ByteString key, Response response) {
+        List<Connection.Callback> waiters;
+        synchronized (inFlight) {
+            waiters = inFlight.remove(key);
+        }
+        if (waiters == null) {
+            return;
+        }
+
+        if (waiters.size() > 1) {
+            logger.debug("Query result shared by {} callers", waiters.size());
+        }
+        for (Connection.Callback callback : waiters) {
+            try {
+                callback.onResponse(response);
+            } catch (Exception e) {
+                logger.warn("Query callback exception: ", e);
+            }
+        }
+    }
+
+    public static ByteString keyOf(EndorserRequest request) {
+        ByteString creator = request.getCreator();
+
+        // ChaincodeProposalPayload holds the chaincode name, function, args and transient map
+        byte[] creatorSize = ByteBuffer.allocate(4).putInt(creator.size()).array();
+        return ByteString.copyFromUtf8(request.getResourceInfo().getName())
+                .concat(ByteString.copyFrom(new byte[] {0}))
+                .concat(ByteString.copyFrom(creatorSize))
+                .concat(creator)
+                .concat(request.getProposal().getPayload());
+    }
+}
@@ -1,7 +1,7 @@
 package com.cayden.sample.fabric;
 
-import com.google.protobuf.ByteString;
 import com.cayden.sample.common.FabricType;
+import com.webank.wecross.stub.Connection;
 import com.webank.wecross.stub.Request;
 import com.webank.wecross.stub.ResourceInfo;
 import com.webank.wecross.stub.Response;
@@ -11,20 +11,22 @@ import io.netty.util.Timeout;
 import io.netty.util.Timer;
 import io.netty.util.TimerTask;
 import org.hyperledger.fabric.protos.common.Common;
-import org.hyperledger.fabric.protos.msp.Identities;
 import org.hyperledger.fabric.protos.orderer.Ab;
 import org.hyperledger.fabric.protos.peer.FabricProposal;
+import org.hyperledger.fabric.protos.peer.FabricTransaction;
 import org.hyperledger.fabric.sdk.*;
 import org.hyperledger.fabric.sdk.exception.CryptoException;
 import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
-import org.hyperledger.fabric.sdk.helper.Utils;
 import org.hyperledger.fabric.sdk.security.CryptoSuite;
 import org.hyperledger.fabric.sdk.transaction.TransactionContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
@@ -40,6 +42,18 @@ public class ChaincodeConnection {
     private String chainLanguage;
     private ChaincodeID chaincodeID;
     private long proposalWaitTime;
+    private long endorserTimeout;
+    private long transactionTimeout;
+    private long mvccRetries;
+    private long mvccRetryBackoff;
+    private int commitConfirmations;
+    private long commitTimeout;
+    private String coalesceMethod;
+    private String coalesceBatchMethod;
+    private long coalesceWindow;
+    private long coalesceSize;
+    private int endorserQuorum;
+    private EndorsementPolicyAnalyzer.Rule callRule;
     private org.hyperledger.fabric.sdk.TransactionRequest.Type chainCodeType;
 
     private HFClient hfClient;
@@ -47,6 +61,13 @@ public class ChaincodeConnection {
     private Collection<Peer> endorsers;
 
     private FabricInnerFunction fabricInnerFunction;
+    private EndorsementFanout endorsementFanout;
+    private EndorserPlanner endorserPlanner;
+    private EndorserScoreboard endorserScoreboard;
+    private OrdererBroadcaster ordererBroadcaster;
+    private CommitTracker commitTracker;
+    private TransactionOutbox outbox; // null if not configured
+    private TransactionPipeline pipeline = TransactionPipeline.getDefault();
 
     private Timer timeoutHandler;
 
@@ -54,7 +75,11 @@ public class ChaincodeConnection {
             HFClient hfClient,
             Map<String, Peer> peersMap,
             Channel channel,
-            FabricStubConfigParser.Resources.Resource resourceConfig)
+            FabricStubConfigParser.Resources.Resource resourceConfig,
+            EndorserScoreboard endorserScoreboard,
+            OrdererBroadcaster ordererBroadcaster,
+            CommitTracker commitTracker,
+            TransactionOutbox outbox)
             throws Exception {
         this.name = resourceConfig.getName();
         this.type = resourceConfig.getType();
@@ -62,6 +87,24 @@ public class ChaincodeConnection {
         this.chainLanguage = resourceConfig.getChainLanguage();
         this.chaincodeID = ChaincodeID.newBuilder().setName(this.chainCodeName).build();
         this.proposalWaitTime = resourceConfig.getProposalWaitTime();
+        this.endorserTimeout = resourceConfig.getEndorserTimeout();
+        this.transactionTimeout = resourceConfig.getTransactionTimeout();
+        this.mvccRetries = resourceConfig.getMvccRetries();
+        this.mvccRetryBackoff = resourceConfig.getMvccRetryBackoff();
+        this.commitConfirmations =
+                CommitTracker.Strategy.parse(resourceConfig.getCommitStrategy())
+                        .getConfirmations(
+                                channel.getPeers(EnumSet.of(Peer.PeerRole.EVENT_SOURCE)).size());
+        this.commitTimeout = resourceConfig.getCommitTimeout();
+        this.coalesceMethod = resourceConfig.getCoalesceMethod();
+        this.coalesceBatchMethod = resourceConfig.getCoalesceBatchMethod();
+        this.coalesceWindow = resourceConfig.getCoalesceWindow();
+        this.coalesceSize = resourceConfig.getCoalesceSize();
+        this.endorserQuorum = resourceConfig.getEndorserQuorum().intValue();
+        this.callRule =
+                EndorsementPolicyAnalyzer.Rule.agreeing(
+                                resourceConfig.getCallVerifyPeers().intValue())
+                        .requireOrgs(resourceConfig.getCallVerifyOrgs());
 
         if (resourceConfig.getChainLanguage().toLowerCase().equals("go")) {
             this.chainCodeType = org.hyperledger.fabric.sdk.TransactionRequest.Type.GO_LANG;
@@ -91,10 +134,28 @@ public class ChaincodeConnection {
         }
 
         this.fabricInnerFunction = new FabricInnerFunction(channel);
+        this.endorserScoreboard = endorserScoreboard;
+        this.ordererBroadcaster = ordererBroadcaster;
+        this.commitTracker = commitTracker;
+        this.outbox = outbox;
+        this.endorsementFanout = new EndorsementFanout(fabricInnerFunction, endorserScoreboard);
+        this.endorserPlanner =
+                new EndorserPlanner(
+                        channel,
+                        hfClient,
+                        chainCodeName,
+                        proposalWaitTime,
+                        endorserQuorum,
+                        endorsers,
+                        endorserScoreboard);
 
         this.timeoutHandler = new HashedWheelTimer();
     }
 
+    public long getTransactionTimeout() {
+        return transactionTimeout;
+    }
+
     public ResourceInfo getResourceInfo() {
         ResourceInfo resourceInfo = new ResourceInfo();
         resourceInfo.setName(name);
@@ -106,6 +167,11 @@ public class ChaincodeConnection {
                         .chainCodeName(chainCodeName)
                         .chainCodeType(chainCodeType)
                         .proposalWaitTime(proposalWaitTime)
+                        .transactionTimeout(transactionTimeout)
+                        .mvccRetries(mvccRetries)
+                        .mvccRetryBackoff(mvccRetryBackoff)
+                        .coalesce(
+                                coalesceMethod, coalesceBatchMethod, coalesceWindow, coalesceSize)
                         .toMap());
 
         resourceInfo.setChecksum(HashUtils.sha256String(chainCodeName));
@@ -114,61 +180,209 @@ public class ChaincodeConnection {
     }
 
     public Response call(Request request) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        asyncCall(request, future::complete);
+        return future.join();
+    }
+
+    public void asyncCall(Request request, Connection.Callback callback) {
         if (request.getType() != FabricType.ConnectionMessage.FABRIC_CALL) {
-            return FabricConnectionResponse.build()
-                    .errorCode(FabricType.TransactionResponseStatus.ILLEGAL_REQUEST_TYPE)
-                    .errorMessage("Illegal request type: " + request.getType());
+            callback.onResponse(
+                    FabricConnectionResponse.build()
+                            .errorCode(FabricType.TransactionResponseStatus.ILLEGAL_REQUEST_TYPE)
+                            .errorMessage("Illegal request type: " + request.getType()));
+            return;
         }
 
-        FabricConnectionResponse response;
+        EndorserRequest endorserRequest;
         try {
-            Collection<ProposalResponse> proposalResponses = queryEndorser(request);
-            EndorsementPolicyAnalyzer analyzer = new EndorsementPolicyAnalyzer(proposalResponses);
-
-            if (analyzer.hasSuccess()) {
-                response =
-                        FabricConnectionResponse.build()
-                                .errorCode(FabricType.TransactionResponseStatus.SUCCESS)
-                                .errorMessage(analyzer.info())
-                                .data(analyzer.getPayload());
-            } else {
-                response =
-                        FabricConnectionResponse.build()
-                                .errorCode(
-                                        FabricType.TransactionResponseStatus
-                                                .FABRIC_INVOKE_CHAINCODE_FAILED)
-                                .errorMessage("Query endorser failed: " + analyzer.info());
-            }
+            endorserRequest = EndorserRequest.from(request);
         } catch (Exception e) {
-            response =
-                    FabricConnectionResponse.build()
-                            .errorCode(
-                                    FabricType.TransactionResponseStatus
-                                            .FABRIC_INVOKE_CHAINCODE_FAILED)
-                            .errorMessage("Query endorser exception: " + e);
+            callback.onResponse(buildCallResponse(null, null, e));
+            return;
+        }
+
+        if (!checkDeadline(endorserRequest)) {
+            callback.onResponse(deadlineExceeded("query"));
+            return;
+        }
+
+        queryWithFallback(
+                        endorserRequest,
+                        endorserScoreboard.rank(endorsers),
+                        0,
+                        new LinkedList<>(),
+                        null)
+                .whenComplete(
+                        (analyzer, throwable) ->
+                                callback.onResponse(buildCallResponse(analyzer, throwable)));
+    }
+
+    private Response buildCallResponse(EndorsementPolicyAnalyzer analyzer, Throwable throwable) {
+        if (throwable != null) {
+            return FabricConnectionResponse.build()
+                    .errorCode(FabricType.TransactionResponseStatus.FABRIC_INVOKE_CHAINCODE_FAILED)
+                    .errorMessage("Query endorser exception: " + unwrap(throwable));
+        }
+
+        if (analyzer.hasSuccess()) {
+            return FabricConnectionResponse.build()
+                    .errorCode(FabricType.TransactionResponseStatus.SUCCESS)
+                    .errorMessage("Success")
+                    .data(analyzer.getPayload());
+        } else {
+            return FabricConnectionResponse.build()
+                    .errorCode(FabricType.TransactionResponseStatus.FABRIC_INVOKE_CHAINCODE_FAILED)
+                    .errorMessage("Query endorser failed: " + analyzer.info());
         }
-        return response;
     }
 
     public Response sendTransactionEndorser(Request request) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        asyncSendTransactionEndorser(request, future::complete);
+        return future.join();
+    }
+
+    public void asyncSendTransactionEndorser(Request request, Connection.Callback callback) {
         if (request.getType() != FabricType.ConnectionMessage.FABRIC_SENDTRANSACTION_ENDORSER) {
-            return FabricConnectionResponse.build()
-                    .errorCode(FabricType.TransactionResponseStatus.ILLEGAL_REQUEST_TYPE)
-                    .errorMessage("Illegal request type: " + request.getType());
+            callback.onResponse(
+                    FabricConnectionResponse.build()
+                            .errorCode(FabricType.TransactionResponseStatus.ILLEGAL_REQUEST_TYPE)
+                            .errorMessage("Illegal request type: " + request.getType()));
+            return;
         }
 
+        EndorserRequest endorserRequest;
+        try {
+            endorserRequest = EndorserRequest.from(request);
+        } catch (Exception e) {
+            callback.onResponse(buildEndorserResponse(null, null, e));
+            return;
+        }
+
+        if (!checkDeadline(endorserRequest)) {
+            callback.onResponse(deadlineExceeded("endorsement"));
+            return;
+        }
+
+        // Only the peers needed by the endorsement policy are asked
+        EndorserPlanner.Plan plan = endorserPlanner.plan();
+        endorseWithFallback(
+                        endorserRequest,
+                        plan.getPeers(),
+                        plan.getRequirement(),
+                        plan.getRequirement(),
+                        new HashSet<>(),
+                        new LinkedList<>(),
+                        null)
+                .handleAsync(
+                        (proposalResponses, throwable) ->
+                                buildEndorserResponse(
+                                        plan.getRequirement(), proposalResponses, throwable),
+                        pipeline.getAssembleStage())
+                .whenComplete(
+                        (response, throwable) ->
+                                callback.onResponse(
+                                        throwable == null
+                                                ? response
+                                                : buildEndorserResponse(null, null, throwable)));
+    }
+
+    /**
+     * Ask the planned peers, and while the requirement is not met the next ranked peers of the
+     * MSPs still missing, see EndorserPlanner.fallbackPeers(). A fallback round waits for all of
+     * its peers, like queryWithFallback.
+     */
+    private CompletableFuture<Collection<ProposalResponse>> endorseWithFallback(
+            EndorserRequest request,
+            Collection<Peer> peers,
+            EndorsementRequirement roundRequirement,
+            EndorsementRequirement requirement,
+            Set<Peer> asked,
+            List<ProposalResponse> responses,
+            Throwable lastException) {
+        asked.addAll(peers);
+        return asyncQueryEndorser(request, peers, roundRequirement)
+                .handle(
+                        (roundResponses, throwable) -> {
+                            Throwable exception = lastException;
+                            if (throwable != null) {
+                                exception = unwrap(throwable);
+                                logger.warn("Endorse by {} failed: {}", peers, exception);
+                            } else {
+                                responses.addAll(roundResponses);
+                            }
+
+                            Collection<Peer> next = Collections.emptyList();
+                            List<ProposalResponse> successResponses =
+                                    new EndorsementPolicyAnalyzer(responses)
+                                            .getSuccessResponses();
+                            if (!requirement.isSatisfied(successResponses)
+                                    && !TransactionDeadline.isExpired(request.getDeadline())) {
+                                next = endorserPlanner.fallbackPeers(successResponses, asked);
+                            }
+                            if (next.isEmpty()) {
+                                CompletableFuture<Collection<ProposalResponse>> future =
+                                        new CompletableFuture<>();
+                                if (responses.isEmpty() && exception != null) {
+                                    future.completeExceptionally(exception);
+                                } else {
+                                    future.complete(responses);
+                                }
+                                return future;
+                            }
+
+                            logger.debug(
+                                    "Endorsements of {} short, try next peers {}",
+                                    request.getTxID(),
+                                    next);
+                            return endorseWithFallback(
+                                    request,
+                                    next,
+                                    new QuorumRequirement(next.size()),
+                                    requirement,
+                                    asked,
+                                    responses,
+                                    exception);
+                        })
+                .thenCompose(Function.identity());
+    }
+
+    /** False if the request is already too late, a request without deadline gets the default. */
+    private boolean checkDeadline(EndorserRequest request) {
+        if (request.getDeadline() == 0) {
+            request.setDeadline(System.currentTimeMillis() + transactionTimeout);
+        }
+        return !TransactionDeadline.isExpired(request.getDeadline());
+    }
+
+    private static Response deadlineExceeded(String phase) {
+        return FabricConnectionResponse.build()
+                .errorCode(FabricType.TransactionResponseStatus.DEADLINE_EXCEEDED)
+                .errorMessage("Deadline exceeded, " + phase + " dropped");
+    }
+
+    private Response buildEndorserResponse(
+            EndorsementRequirement requirement,
+            Collection<ProposalResponse> proposalResponses,
+            Throwable throwable) {
         FabricConnectionResponse response;
         try {
-            Collection<ProposalResponse> proposalResponses = queryEndorser(request);
+            if (throwable != null) {
+                throw unwrap(throwable);
+            }
+
+            endorserPlanner.learn(proposalResponses);
             EndorsementPolicyAnalyzer analyzer = new EndorsementPolicyAnalyzer(proposalResponses);
 
-            if (analyzer.allSuccess()) { // All success endorsement policy, TODO: pull policy
+            if (requirement.isSatisfied(analyzer.getSuccessResponses())) {
                 byte[] ordererPayloadToSign =
-                        FabricInnerProposalResponsesEncoder.encode(proposalResponses);
+                        FabricInnerProposalResponsesEncoder.encode(
+                                requirement.select(analyzer.getSuccessResponses()));
                 response =
                         FabricConnectionResponse.build()
                                 .errorCode(FabricType.TransactionResponseStatus.SUCCESS)
-                                .errorMessage(analyzer.info())
+                                .errorMessage("Success")
                                 .data(ordererPayloadToSign);
             } else {
                 response =
@@ -178,7 +392,7 @@ public class ChaincodeConnection {
                                                 .FABRIC_INVOKE_CHAINCODE_FAILED)
                                 .errorMessage("Query endorser failed: " + analyzer.info());
             }
-        } catch (Exception e) {
+        } catch (Throwable e) {
             response =
                     FabricConnectionResponse.build()
                             .errorCode(
@@ -189,77 +403,119 @@ public class ChaincodeConnection {
         return response;
     }
 
+    /**
+     * Broadcast the transaction and answer once it is committed. A submit request
+     * (FABRIC_SUBMIT_TRANSACTION_ORDERER) is answered with its txID as soon as the orderer accepted
+     * it instead, and its commit is kept for a later FABRIC_WAIT_TRANSACTION_COMMIT request.
+     */
     public void asyncSendTransactionOrderer(
             Request request, SendTransactionOrdererCallback callback) {
-        if (request.getType() != FabricType.ConnectionMessage.FABRIC_SENDTRANSACTION_ORDERER) {
+        boolean submitOnly =
+                request.getType() == FabricType.ConnectionMessage.FABRIC_SUBMIT_TRANSACTION_ORDERER;
+        if (request.getType() != FabricType.ConnectionMessage.FABRIC_SENDTRANSACTION_ORDERER
+                && !submitOnly) {
             callback.onResponseInternal(
                     FabricConnectionResponse.build()
                             .errorCode(FabricType.TransactionResponseStatus.ILLEGAL_REQUEST_TYPE)
                             .errorMessage("Illegal request type: " + request.getType()));
         }
 
+        long orderDeadline = 0;
+        long commitDeadline = 0;
+        if (request instanceof OrdererRequest) {
+            orderDeadline = ((OrdererRequest) request).getOrderDeadline();
+            commitDeadline = ((OrdererRequest) request).getCommitDeadline();
+        }
+        long defaultDeadline = System.currentTimeMillis() + transactionTimeout;
+        orderDeadline = orderDeadline == 0 ? defaultDeadline : orderDeadline;
+        commitDeadline = commitDeadline == 0 ? defaultDeadline : commitDeadline;
+        if (TransactionDeadline.isExpired(orderDeadline)) {
+            callback.onResponseInternal(deadlineExceeded("ordering"));
+            return;
+        }
+
         try {
-            Common.Envelope envelope = Common.Envelope.parseFrom(request.getData());
-            byte[] payload = envelope.getPayload().toByteArray();
-            final String proposalTransactionID = getTxIDFromProposalBytes(payload);
-
-            sendOrdererPayload(envelope, proposalTransactionID)
-                    .thenApply(
-                            new Function<
-                                    BlockEvent.TransactionEvent, BlockEvent.TransactionEvent>() {
-                                @Override
-                                public BlockEvent.TransactionEvent apply(
-                                        BlockEvent.TransactionEvent transactionEvent) {
-                                    FabricConnectionResponse response;
-                                    if (transactionEvent.isValid()) {
-                                        long blockNumber =
-                                                transactionEvent.getBlockEvent().getBlockNumber();
-                                        byte[] blockNumberBytes = longToBytes(blockNumber);
-                                        response =
-                                                FabricConnectionResponse.build()
-                                                        .errorCode(
-                                                                FabricType.TransactionResponseStatus
-                                                                        .SUCCESS)
-                                                        .data(blockNumberBytes);
-                                        // success is blockNumber
-
-                                        logger.info(
-                                                "Wait event success: "
-                                                        + transactionEvent.getChannelId()
-                                                        + " "
-                                                        + transactionEvent.getTransactionID()
-                                                        + " "
-                                                        + transactionEvent.getType()
-                                                        + " "
-                                                        + transactionEvent.getValidationCode());
-                                    } else {
-                                        response =
-                                                FabricConnectionResponse.build()
-                                                        .errorCode(
-                                                                FabricType.TransactionResponseStatus
-                                                                        .FABRIC_EXECUTE_CHAINCODE_FAILED)
-                                                        .data(
-                                                                new byte[] {
-                                                                    transactionEvent
-                                                                            .getValidationCode()
-                                                                });
-                                        // error is TxValidationCode of fabric define in
-                                        // Transaction.proto
-
-                                        logger.info(
-                                                "Wait event failed: "
-                                                        + transactionEvent.getChannelId()
-                                                        + " "
-                                                        + transactionEvent.getTransactionID()
-                                                        + " "
-                                                        + transactionEvent.getType()
-                                                        + " "
-                                                        + transactionEvent.getValidationCode());
-                                    }
-                                    callback.onResponseInternal(response);
-
-                                    return transactionEvent;
+            // In process the envelope is used as the driver built it, without a copy
+            OrdererRequest ordererRequest = OrdererRequest.from(request);
+            Common.Envelope envelope = ordererRequest.getEnvelope();
+            final String proposalTransactionID = ordererRequest.getTxID();
+
+            // tracked before sending, the block could come before the broadcast response
+            if (commitTimeout > 0) {
+                commitDeadline =
+                        Math.min(commitDeadline, System.currentTimeMillis() + commitTimeout);
+            }
+            // broadcast once the outbox has it on disk, a crash in between replays it; appended
+            // before tracking, so its done mark can't be written ahead of it
+            CompletableFuture<Void> durable =
+                    outbox == null
+                            ? CompletableFuture.completedFuture(null)
+                            : outbox.append(proposalTransactionID, name, envelope);
+            CompletableFuture<BlockEvent.TransactionEvent> commitFuture =
+                    trackCommit(proposalTransactionID, commitDeadline, submitOnly);
+            if (commitFuture.isCompletedExceptionally()) {
+                // its commit could not be reported, so it is not sent at all
+                commitFuture.exceptionally(
+                        throwable -> {
+                            callback.onResponseInternal(
+                                    FabricConnectionResponse.build()
+                                            .errorCode(
+                                                    FabricType.TransactionResponseStatus
+                                                            .FABRIC_COMMIT_CHAINCODE_FAILED)
+                                            .errorMessage(
+                                                    "Invoke orderer exception: "
+                                                            + unwrap(throwable)));
+                            return null;
+                        });
+                return;
+            }
+            final long broadcastDeadline = orderDeadline;
+            CompletableFuture<Ab.BroadcastResponse> broadcastFuture =
+                    durable.thenCompose(
+                            v ->
+                                    sendOrdererPayload(
+                                            envelope, proposalTransactionID, broadcastDeadline));
+            CompletableFuture<Response> responseFuture;
+            if (submitOnly) {
+                responseFuture =
+                        broadcastFuture.thenApply(
+                                resp ->
+                                        FabricConnectionResponse.build()
+                                                .errorCode(
+                                                        FabricType.TransactionResponseStatus
+                                                                .SUCCESS)
+                                                .errorMessage("Success")
+                                                .data(
+                                                        proposalTransactionID.getBytes(
+                                                                StandardCharsets.UTF_8)));
+            } else {
+                responseFuture =
+                        broadcastFuture
+                                .thenCompose(resp -> commitFuture)
+                                .thenApplyAsync(this::buildCommitResponse, this::onCommitStage);
+            }
+
+            responseFuture
+                    .thenAccept(callback::onResponseInternal)
+                    .exceptionally(
+                            throwable -> {
+                                commitFuture.cancel(false);
+                                // a rejected broadcast is reported now, not by the timeout
+                                Throwable cause = unwrap(throwable);
+                                String message = "Invoke orderer exception: " + cause;
+                                if (durable.isCompletedExceptionally()
+                                        || cause instanceof BroadcastRejectedException) {
+                                    callback.onResponseInternal(
+                                            FabricConnectionResponse.build()
+                                                    .errorCode(
+                                                            FabricType.TransactionResponseStatus
+                                                                    .FABRIC_COMMIT_CHAINCODE_FAILED)
+                                                    .errorMessage(message));
+                                } else {
+                                    callback.onResponseInternal(
+                                            commitUnknown(proposalTransactionID, message));
                                 }
+                                return null;
                             });
 
             callback.setTimeout(
@@ -267,10 +523,15 @@ public class ChaincodeConnection {
                             new TimerTask() {
                                 @Override
                                 public void run(Timeout timeout) throws Exception {
-                                    callback.onTimeout();
+                                    commitFuture.cancel(false); // stop tracking it
+                                    callback.onResponseInternal(
+                                            commitUnknown(
+                                                    proposalTransactionID,
+                                                    "Invoke orderer timeout"));
                                 }
                             },
-                            5000,
+                            TransactionDeadline.remaining(
+                                    submitOnly ? orderDeadline : commitDeadline),
                             TimeUnit.MILLISECONDS));
 
         } catch (Exception e) {
@@ -284,50 +545,267 @@ public class ChaincodeConnection {
         }
     }
 
-    public Collection<ProposalResponse> queryEndorser(Request request) throws Exception {
-        FabricProposal.SignedProposal sp =
-                FabricProposal.SignedProposal.parseFrom(request.getData());
-        TransactionContext transactionContext = getTransactionContext(sp);
-        Collection<ProposalResponse> endorserResponses =
-                fabricInnerFunction.sendProposalToPeers(endorsers, sp, transactionContext);
-        return endorserResponses;
+    /**
+     * Broadcast an envelope recovered from the outbox again. Like any tracked transaction it leaves
+     * the outbox once its outcome is known, see trackCommit(). Orderers do not check txIDs, an
+     * envelope which already committed is ordered again and the peers mark the copy DUPLICATE_TXID,
+     * so its state changes are not applied twice and the replay ends with that invalid event.
+     */
+    public CompletableFuture<BlockEvent.TransactionEvent> replay(
+            Common.Envelope envelope, String txID) {
+        long deadline = System.currentTimeMillis() + transactionTimeout;
+        CompletableFuture<BlockEvent.TransactionEvent> commitFuture =
+                trackCommit(txID, deadline, false);
+        if (commitFuture.isCompletedExceptionally()) {
+            return commitFuture; // not tracked, fails like a rejected broadcast
+        }
+        sendOrdererPayload(envelope, txID, deadline)
+                .whenComplete(
+                        (resp, throwable) -> {
+                            if (throwable != null) {
+                                commitFuture.completeExceptionally(unwrap(throwable));
+                            }
+                        });
+        return commitFuture;
     }
 
-    private TransactionContext getTransactionContext(FabricProposal.SignedProposal signedProposal)
-            throws Exception {
-        User userContext = hfClient.getUserContext();
-        User.userContextCheck(userContext);
+    /**
+     * Track the commit of a transaction. Whichever way the wait ends, commit, timeout, cancel by
+     * the callback timer or a failed broadcast, the caller is answered with it, so the envelope
+     * leaves the outbox then; a replay after a failure was reported could execute it twice.
+     */
+    private CompletableFuture<BlockEvent.TransactionEvent> trackCommit(
+            String txID, long deadline, boolean retain) {
+        CompletableFuture<BlockEvent.TransactionEvent> commitFuture =
+                commitTracker.track(txID, deadline, retain, commitConfirmations);
+        if (outbox != null) {
+            commitFuture.whenComplete((transactionEvent, throwable) -> outbox.markDone(txID));
+        }
+        return commitFuture;
+    }
 
-        String txID = recoverTxID(signedProposal);
+    /**
+     * The transaction was sent, or may have been, and its outcome is not known yet. It is tracked
+     * again for another transactionTimeout and kept, so a FABRIC_WAIT_TRANSACTION_COMMIT for the
+     * txID in the response data can still learn it.
+     */
+    private Response commitUnknown(String txID, String message) {
+        commitTracker.track(
+                txID,
+                System.currentTimeMillis() + transactionTimeout,
+                true,
+                commitConfirmations);
+        return FabricConnectionResponse.build()
+                .errorCode(FabricType.TransactionResponseStatus.FABRIC_COMMIT_UNKNOWN)
+                .errorMessage(message)
+                .data(txID.getBytes(StandardCharsets.UTF_8));
+    }
 
-        TransactionContext transactionContext =
-                new TransactionContextMask(txID, channel, userContext, hfClient.getCryptoSuite());
+    /**
+     * Answer once a transaction submitted with FABRIC_SUBMIT_TRANSACTION_ORDERER is committed. A
+     * transaction the tracker has forgotten is looked up on the ledger.
+     */
+    public void asyncWaitTransactionCommit(
+            Request request, SendTransactionOrdererCallback callback) {
+        String txID = new String(request.getData(), StandardCharsets.UTF_8);
+        CompletableFuture<BlockEvent.TransactionEvent> commitFuture = commitTracker.await(txID);
+        if (commitFuture == null) {
+            // no longer tracked, the ledger knows whether it committed
+            onCommitStage(() -> callback.onResponseInternal(queryCommit(txID)));
+            return;
+        }
 
-        return transactionContext;
+        // The commit future always ends by the commit deadline, no timer needed
+        commitFuture
+                .thenApplyAsync(this::buildCommitResponse, this::onCommitStage)
+                .thenAccept(callback::onResponseInternal)
+                .exceptionally(
+                        throwable -> {
+                            callback.onResponseInternal(
+                                    commitUnknown(
+                                            txID, "Wait commit exception: " + unwrap(throwable)));
+                            return null;
+                        });
     }
 
-    private String recoverTxID(FabricProposal.SignedProposal signedProposal) throws Exception {
-        FabricProposal.Proposal proposal =
-                FabricProposal.Proposal.parseFrom(signedProposal.getProposalBytes());
+    /**
+     * The commit of a transaction that is not tracked, read from the ledger and answered like a
+     * commit event. FABRIC_COMMIT_CHAINCODE_FAILED if the ledger does not have it, or can't say.
+     */
+    private Response queryCommit(String txID) {
+        try {
+            TransactionInfo transactionInfo = channel.queryTransactionByID(txID);
+            FabricTransaction.TxValidationCode validationCode =
+                    transactionInfo.getValidationCode();
+            if (validationCode != FabricTransaction.TxValidationCode.VALID) {
+                return FabricConnectionResponse.build()
+                        .errorCode(
+                                FabricType.TransactionResponseStatus
+                                        .FABRIC_EXECUTE_CHAINCODE_FAILED)
+                        .data(new byte[] {(byte) validationCode.getNumber()});
+            }
 
-        Common.Header header = Common.Header.parseFrom(proposal.getHeader());
+            long blockNumber = channel.queryBlockByTransactionID(txID).getBlockNumber();
+            return FabricConnectionResponse.build()
+                    .errorCode(FabricType.TransactionResponseStatus.SUCCESS)
+                    .data(longToBytes(blockNumber));
+        } catch (Exception e) {
+            return FabricConnectionResponse.build()
+                    .errorCode(FabricType.TransactionResponseStatus.FABRIC_COMMIT_CHAINCODE_FAILED)
+                    .errorMessage(
+                            "Transaction " + txID + " not submitted or expired: " + e.getMessage());
+        }
+    }
 
-        Common.SignatureHeader signatureHeader =
-                Common.SignatureHeader.parseFrom(header.getSignatureHeader());
+    /** The transaction is committed, a full commit stage builds its response in place. */
+    private void onCommitStage(Runnable step) {
+        try {
+            pipeline.getCommitStage().execute(step);
+        } catch (RejectedExecutionException e) {
+            step.run();
+        }
+    }
 
-        Identities.SerializedIdentity serializedIdentity =
-                Identities.SerializedIdentity.parseFrom(signatureHeader.getCreator());
+    private Response buildCommitResponse(BlockEvent.TransactionEvent transactionEvent) {
+        FabricConnectionResponse response;
+        if (transactionEvent.isValid()) {
+            long blockNumber = transactionEvent.getBlockEvent().getBlockNumber();
+            byte[] blockNumberBytes = longToBytes(blockNumber);
+            response =
+                    FabricConnectionResponse.build()
+                            .errorCode(FabricType.TransactionResponseStatus.SUCCESS)
+                            .data(blockNumberBytes);
+            // success is blockNumber
+
+            logger.info(
+                    "Wait event success: "
+                            + transactionEvent.getChannelId()
+                            + " "
+                            + transactionEvent.getTransactionID()
+                            + " "
+                            + transactionEvent.getType()
+                            + " "
+                            + transactionEvent.getValidationCode());
+        } else {
+            response =
+                    FabricConnectionResponse.build()
+                            .errorCode(
+                                    FabricType.TransactionResponseStatus
+                                            .FABRIC_EXECUTE_CHAINCODE_FAILED)
+                            .data(new byte[] {transactionEvent.getValidationCode()});
+            // error is TxValidationCode of fabric define in Transaction.proto
+
+            logger.info(
+                    "Wait event failed: "
+                            + transactionEvent.getChannelId()
+                            + " "
+                            + transactionEvent.getTransactionID()
+                            + " "
+                            + transactionEvent.getType()
+                            + " "
+                            + transactionEvent.getValidationCode());
+        }
+        return response;
+    }
 
-        ByteString no = signatureHeader.getNonce();
+    /**
+     * Ask the best scored peers that are still missing for the call rule, another peer is only
+     * asked when one can't be reached, times out or disagrees. A chaincode error is answered at
+     * once, every peer would return it. With callVerifyPeers = 1 a query costs a single peer.
+     */
+    private CompletableFuture<EndorsementPolicyAnalyzer> queryWithFallback(
+            EndorserRequest request,
+            List<Peer> ranked,
+            int next,
+            List<ProposalResponse> responses,
+            Throwable lastException) {
+        EndorsementPolicyAnalyzer analyzer = new EndorsementPolicyAnalyzer(responses, callRule);
+
+        int missing = analyzer.getMissing();
+        if (missing > 0
+                && next < ranked.size()
+                && TransactionDeadline.isExpired(request.getDeadline())) {
+            logger.debug("Deadline of {} exceeded, no more peers asked", request.getTxID());
+            next = ranked.size();
+        }
+        if (missing == 0 || next >= ranked.size() || hasChaincodeError(responses)) {
+            CompletableFuture<EndorsementPolicyAnalyzer> future = new CompletableFuture<>();
+            if (responses.isEmpty() && lastException != null) {
+                future.completeExceptionally(lastException);
+            } else {
+                future.complete(analyzer);
+            }
+            return future;
+        }
 
-        ByteString comp = no.concat(serializedIdentity.toByteString());
+        List<Peer> batch = ranked.subList(next, Math.min(next + missing, ranked.size()));
+        return asyncQueryEndorser(request, batch, new QuorumRequirement(batch.size()))
+                .handle(
+                        (batchResponses, throwable) -> {
+                            Throwable exception = lastException;
+                            if (throwable != null) {
+                                exception = unwrap(throwable);
+                                logger.warn(
+                                        "Query {} failed, try next peer: {}", batch, exception);
+                            } else {
+                                responses.addAll(batchResponses);
+                            }
+                            return queryWithFallback(
+                                    request,
+                                    ranked,
+                                    next + batch.size(),
+                                    responses,
+                                    exception);
+                        })
+                .thenCompose(Function.identity());
+    }
 
-        byte[] txh = CryptoSuite.Factory.getCryptoSuite().hash(comp.toByteArray());
+    /** The SDK turns transport errors into responses without a peer response. */
+    private static boolean hasChaincodeError(List<ProposalResponse> responses) {
+        for (ProposalResponse response : responses) {
+            if (response.getStatus() != ProposalResponse.Status.SUCCESS
+                    && response.getProposalResponse() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        //    txID = Hex.encodeHexString(txh);
-        String txID = new String(Utils.toHexString(txh));
+    public CompletableFuture<Collection<ProposalResponse>> asyncQueryEndorser(
+            EndorserRequest request,
+            Collection<Peer> peers,
+            EndorsementRequirement requirement) {
+        TransactionContext transactionContext;
+        try {
+            transactionContext = getTransactionContext(request.getTxID());
+        } catch (Exception e) {
+            CompletableFuture<Collection<ProposalResponse>> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        // Each peer is waited for endorserTimeout at most, and not beyond the deadline
+        transactionContext.setProposalWaitTime(
+                Math.min(endorserTimeout, TransactionDeadline.remaining(request.getDeadline())));
+
+        return endorsementFanout.send(
+                peers, request.getSignedProposal(), transactionContext, requirement);
+    }
 
-        return txID;
+    private static Throwable unwrap(Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            return throwable.getCause();
+        }
+        return throwable;
+    }
+
+    private TransactionContext getTransactionContext(String txID) throws Exception {
+        User userContext = hfClient.getUserContext();
+        User.userContextCheck(userContext);
+
+        TransactionContext transactionContext =
+                new TransactionContextMask(txID, channel, userContext, hfClient.getCryptoSuite());
+
+        return transactionContext;
     }
 
     // Only for mask the txID
@@ -359,154 +837,121 @@ public class ChaincodeConnection {
         }
     }
 
-    private CompletableFuture<BlockEvent.TransactionEvent> sendOrdererPayload(
-            Common.Envelope transactionEnvelope, String proposalTransactionID) throws Exception {
-        // make certain we have our own copy
+    private CompletableFuture<Ab.BroadcastResponse> sendOrdererPayload(
+            Common.Envelope transactionEnvelope, String proposalTransactionID, long deadline) {
+        // latency ranked, orderers with an open circuit last
+        final List<Orderer> orderers = ordererBroadcaster.select(channel.getOrderers());
+
+        logger.debug(
+                format(
+                        "Channel %s sending transaction to orderer(s) with TxID %s ",
+                        channel.getName(), proposalTransactionID));
+
+        return broadcastToOrderers(
+                transactionEnvelope,
+                proposalTransactionID,
+                deadline,
+                orderers,
+                0,
+                false,
+                null,
+                null);
+    }
 
-        final List<Orderer> shuffeledOrderers = new ArrayList<>(channel.getOrderers());
+    /**
+     * Broadcast on the pipelined stream of one orderer after another until one accepts the
+     * envelope. Like Channel.sendTransaction() the last exception is reported to the user and the
+     * others are just logged. maybeOrdered is set once an attempt failed without a status, the
+     * envelope may have reached that orderer; otherwise the broadcast fails with a
+     * BroadcastRejectedException.
+     */
+    private CompletableFuture<Ab.BroadcastResponse> broadcastToOrderers(
+            Common.Envelope transactionEnvelope,
+            String proposalTransactionID,
+            long deadline,
+            List<Orderer> orderers,
+            int next,
+            boolean maybeOrdered,
+            Ab.BroadcastResponse lastResp,
+            Exception lastException) {
         final String name = channel.getName();
-        Channel.TransactionOptions transactionOptions =
-                Channel.TransactionOptions.createTransactionOptions()
-                        .orderers(channel.getOrderers())
-                        .userContext(hfClient.getUserContext());
-        try {
-            Collections.shuffle(shuffeledOrderers);
-
-            logger.debug(
+        if (next >= orderers.size() || TransactionDeadline.isExpired(deadline)) {
+            String emsg =
                     format(
-                            "Channel %s sending transaction to orderer(s) with TxID %s ",
-                            name, proposalTransactionID));
-            boolean success = false;
-            Exception lException =
-                    null; // Save last exception to report to user .. others are just logged.
-
-            CompletableFuture<BlockEvent.TransactionEvent> sret =
-                    createTransactionEvent(proposalTransactionID);
-
-            Ab.BroadcastResponse resp = null;
-            Orderer failed = null;
-
-            for (Orderer orderer : shuffeledOrderers) {
-                if (failed != null) {
-                    logger.warn(
-                            format("Channel %s  %s failed. Now trying %s.", name, failed, orderer));
-                }
-                failed = orderer;
-                try {
-
-                    resp =
-                            fabricInnerFunction.sendTransactionToOrderer(
-                                    orderer, transactionEnvelope);
-
-                    lException = null; // no longer last exception .. maybe just failed.
-                    if (resp.getStatus() == Common.Status.SUCCESS) {
-                        success = true;
-                        break;
-                    } else {
-                        logger.warn(
-                                format(
-                                        "Channel %s %s failed. Status returned %s",
-                                        name, orderer, dumpRespData(resp)));
-                    }
-                } catch (Exception e) {
-                    String emsg =
-                            format(
-                                    "Channel %s unsuccessful sendTransaction to orderer %s (%s)",
-                                    name, orderer.getName(), orderer.getUrl());
-                    if (resp != null) {
-
-                        emsg =
-                                format(
-                                        "Channel %s unsuccessful sendTransaction to orderer %s (%s).  %s",
-                                        name,
-                                        orderer.getName(),
-                                        orderer.getUrl(),
-                                        dumpRespData(resp));
-                    }
-
-                    logger.error(emsg);
-                    lException = new Exception(emsg, e);
-                }
-            }
-
-            if (success) {
-                logger.debug(
-                        format(
-                                "Channel %s successful sent to Orderer transaction id: %s",
-                                name, proposalTransactionID));
-
-                // sret.complete(null); // just say we're done.
-
-                return sret;
-            } else {
-
-                String emsg =
-                        format(
-                                "Channel %s failed to place transaction %s on Orderer. Cause: UNSUCCESSFUL. %s",
-                                name, proposalTransactionID, dumpRespData(resp));
-
-                CompletableFuture<BlockEvent.TransactionEvent> ret = new CompletableFuture<>();
-                ret.completeExceptionally(
-                        lException != null ? new Exception(emsg, lException) : new Exception(emsg));
-                return ret;
-            }
-        } catch (Exception e) {
-
-            CompletableFuture<BlockEvent.TransactionEvent> future = new CompletableFuture<>();
-            future.completeExceptionally(e);
-            return future;
+                            "Channel %s failed to place transaction %s on Orderer. Cause: %s. %s",
+                            name,
+                            proposalTransactionID,
+                            next >= orderers.size() ? "UNSUCCESSFUL" : "DEADLINE EXCEEDED",
+                            dumpRespData(lastResp));
+
+            CompletableFuture<Ab.BroadcastResponse> ret = new CompletableFuture<>();
+            ret.completeExceptionally(
+                    maybeOrdered
+                            ? new Exception(emsg, lastException)
+                            : new BroadcastRejectedException(emsg));
+            return ret;
         }
-    }
 
-    private CompletableFuture<BlockEvent.TransactionEvent> createTransactionEvent(
-            String proposalTransactionID) {
-        try {
-            String name = channel.getName();
-            Channel.NOfEvents nOfEvents = Channel.NOfEvents.createNofEvents();
-            Collection<Peer> eventingPeers =
-                    channel.getPeers(EnumSet.of(Peer.PeerRole.EVENT_SOURCE));
-            boolean anyAdded = false;
-            if (!eventingPeers.isEmpty()) {
-                anyAdded = true;
-                nOfEvents.addPeers(eventingPeers);
-            }
-            Collection<EventHub> eventHubs = channel.getEventHubs();
-            if (!eventHubs.isEmpty()) {
-                anyAdded = true;
-                nOfEvents.addEventHubs(channel.getEventHubs());
-            }
-
-            if (!anyAdded) {
-                nOfEvents = Channel.NOfEvents.createNoEvents();
-            }
-
-            final boolean replyonly =
-                    nOfEvents == Channel.NOfEvents.nofNoEvents
-                            || (channel.getEventHubs().isEmpty()
-                                    && channel.getPeers(EnumSet.of(Peer.PeerRole.EVENT_SOURCE))
-                                            .isEmpty());
-
-            CompletableFuture<BlockEvent.TransactionEvent> sret;
-
-            if (replyonly) { // If there are no eventhubs to complete the future, complete it
-                // immediately but give no transaction event
-                logger.debug(
-                        format(
-                                "Completing transaction id %s immediately no event hubs or peer eventing services found in channel %s.",
-                                proposalTransactionID, name));
-                sret = new CompletableFuture<>();
-            } else {
-                sret =
-                        fabricInnerFunction.registerTxListener(
-                                proposalTransactionID, nOfEvents, true);
-            }
-
-            return sret;
-        } catch (Exception e) {
+        Orderer orderer = orderers.get(next);
+        // each orderer left gets its share of the time, a silent one leaves time to fail over
+        long attemptDeadline =
+                deadline == 0
+                        ? 0
+                        : System.currentTimeMillis()
+                                + TransactionDeadline.remaining(deadline)
+                                        / (orderers.size() - next);
+        return ordererBroadcaster
+                .broadcast(orderer, transactionEnvelope, attemptDeadline)
+                .handle(
+                        (resp, throwable) -> {
+                            if (throwable == null && resp.getStatus() == Common.Status.SUCCESS) {
+                                logger.debug(
+                                        format(
+                                                "Channel %s successful sent to Orderer transaction id: %s",
+                                                name, proposalTransactionID));
+                                return CompletableFuture.completedFuture(resp);
+                            }
+
+                            Exception exception = null; // no longer last exception
+                            Ab.BroadcastResponse failedResp = lastResp;
+                            if (throwable != null) {
+                                String emsg =
+                                        format(
+                                                "Channel %s unsuccessful sendTransaction to orderer %s (%s)",
+                                                name, orderer.getName(), orderer.getUrl());
+                                logger.error(emsg);
+                                exception = new Exception(emsg, unwrap(throwable));
+                            } else {
+                                failedResp = resp;
+                                logger.warn(
+                                        format(
+                                                "Channel %s %s failed. Status returned %s",
+                                                name, orderer, dumpRespData(resp)));
+                            }
+
+                            if (next + 1 < orderers.size()) {
+                                logger.warn(
+                                        format(
+                                                "Channel %s  %s failed. Now trying %s.",
+                                                name, orderer, orderers.get(next + 1)));
+                            }
+                            return broadcastToOrderers(
+                                    transactionEnvelope,
+                                    proposalTransactionID,
+                                    deadline,
+                                    orderers,
+                                    next + 1,
+                                    maybeOrdered || throwable != null,
+                                    failedResp,
+                                    exception);
+                        })
+                .thenCompose(Function.identity());
+    }
 
-            CompletableFuture<BlockEvent.TransactionEvent> future = new CompletableFuture<>();
-            future.completeExceptionally(e);
-            return future;
+    /** No orderer took the envelope: each answered with a failure status, or none was tried. */
+    private static class BroadcastRejectedException extends Exception {
+        BroadcastRejectedException(String message) {
+            super(message);
         }
     }
 
@@ -533,14 +978,6 @@ public class ChaincodeConnection {
         return respdata.toString();
     }
 
-    private String getTxIDFromProposalBytes(byte[] proposalBytes) throws Exception {
-        Common.Payload payload = Common.Payload.parseFrom(proposalBytes);
-
-        Common.ChannelHeader channelHeader =
-                Common.ChannelHeader.parseFrom(payload.getHeader().getChannelHeader());
-        return channelHeader.getTxId();
-    }
-
     public Channel getChannel() {
         return channel;
     }
@@ -552,4 +989,8 @@ public class ChaincodeConnection {
     public Collection<Peer> getEndorsers() {
         return endorsers;
     }
+
+    public EndorserScoreboard getEndorserScoreboard() {
+        return endorserScoreboard;
+    }
 }
@@ -0,0 +1,264 @@
+package com.cayden.sample.fabric;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import org.hyperledger.fabric.protos.peer.FabricTransaction;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Waits for transactions to commit on the single block listener of the channel, instead of one
+ * registerTxListener() per transaction. Each block completes the futures of its transactions in
+ * one pass. A transaction not committed within the expiry time, or whose callers all cancelled
+ * their futures, is dropped, and at most MAX_TRACKED transactions are waited for at once. Each
+ * caller gets a future of its own, cancelling it does not end the wait of another caller tracking
+ * the same txID.
+ *
+ * <p>Every event peer delivers the block, a transaction is committed once the number of peers its
+ * Strategy asks for reported it valid. An invalid transaction completes on the first report, the
+ * validation result is the same on all peers. A DUPLICATE_TXID report of a peer which already
+ * reported the transaction is ignored, it comes from an envelope the OrdererBroadcaster resent.
+ *
+ * <p>A transaction tracked with retain keeps its outcome for RETENTION after it completes, so a
+ * waiter which shows up after the block, through await(), still gets it. At most MAX_TRACKED of
+ * them are retained, the oldest is dropped first.
+ */
+public class CommitTracker {
+    private Logger logger = LoggerFactory.getLogger(CommitTracker.class);
+
+    public static final long DEFAULT_EXPIRY = 60000; // ms
+    private static final int MAX_TRACKED = 100000;
+    private static final long RETENTION = 60000; // ms
+    private static final Timer timeoutHandler = new HashedWheelTimer();
+
+    private long expiry;
+    private Map<String, Tracked> tracked = new ConcurrentHashMap<>();
+    private Map<String, CompletableFuture<BlockEvent.TransactionEvent>> retained =
+            Collections.synchronizedMap(
+                    new LinkedHashMap<String, CompletableFuture<BlockEvent.TransactionEvent>>() {
+                        @Override
+                        protected boolean removeEldestEntry(
+                                Map.Entry<String, CompletableFuture<BlockEvent.TransactionEvent>>
+                                        eldest) {
+                            return size() > MAX_TRACKED;
+                        }
+                    });
+
+    public CommitTracker() {
+        this(DEFAULT_EXPIRY);
+    }
+
+    public CommitTracker(long expiry) {
+        this.expiry = expiry;
+    }
+
+    /**
+     * The commit event of a transaction, from the first peer. Track it before the transaction is
+     * sent to the orderer, or the block might be missed.
+     */
+    public CompletableFuture<BlockEvent.TransactionEvent> track(String txID) {
+        return track(txID, 0);
+    }
+
+    /** Like track(txID), but the future also fails once the deadline is reached. */
+    public CompletableFuture<BlockEvent.TransactionEvent> track(String txID, long deadline) {
+        return track(txID, deadline, false, 1);
+    }
+
+    /** The commit event once confirmations peers reported it, or failed at the deadline. */
+    public CompletableFuture<BlockEvent.TransactionEvent> track(
+            String txID, long deadline, boolean retain, int confirmations) {
+        Tracked entry = new Tracked(Math.max(confirmations, 1));
+        CompletableFuture<BlockEvent.TransactionEvent> future = entry.future;
+        if (tracked.size() >= MAX_TRACKED) {
+            future.completeExceptionally(
+                    new Exception("Too many transactions waiting for commit: " + tracked.size()));
+            return future;
+        }
+
+        Tracked exists = tracked.putIfAbsent(txID, entry);
+        if (exists != null) {
+            return exists.join(); // the same transaction sent again
+        }
+
+        Timeout timeout =
+                timeoutHandler.newTimeout(
+                        new TimerTask() {
+                            @Override
+                            public void run(Timeout timeout) throws Exception {
+                                int confirmed;
+                                synchronized (entry) {
+                                    confirmed = entry.peers.size();
+                                }
+                                future.completeExceptionally(
+                                        new TimeoutException(
+                                                confirmed == 0
+                                                        ? "Transaction " + txID + " not committed"
+                                                        : "Transaction "
+                                                                + txID
+                                                                + " confirmed by "
+                                                                + confirmed
+                                                                + " of "
+                                                                + entry.confirmations
+                                                                + " peers"));
+                            }
+                        },
+                        Math.min(expiry, TransactionDeadline.remaining(deadline)),
+                        TimeUnit.MILLISECONDS);
+        if (retain) {
+            retained.put(txID, future);
+        }
+        future.whenComplete(
+                (transactionEvent, throwable) -> {
+                    timeout.cancel();
+                    tracked.remove(txID, entry);
+                    if (retain) {
+                        timeoutHandler.newTimeout(
+                                t -> retained.remove(txID, future),
+                                RETENTION,
+                                TimeUnit.MILLISECONDS);
+                    }
+                });
+        return entry.join();
+    }
+
+    /** The commit of a transaction tracked with retain, null if unknown or long gone. */
+    public CompletableFuture<BlockEvent.TransactionEvent> await(String txID) {
+        CompletableFuture<BlockEvent.TransactionEvent> future = retained.get(txID);
+        return future == null ? null : dependent(future);
+    }
+
+    /** A future of its own for one caller, cancelling it leaves the source alone. */
+    private static CompletableFuture<BlockEvent.TransactionEvent> dependent(
+            CompletableFuture<BlockEvent.TransactionEvent> source) {
+        CompletableFuture<BlockEvent.TransactionEvent> future = new CompletableFuture<>();
+        source.whenComplete(
+                (transactionEvent, throwable) -> {
+                    if (throwable != null) {
+                        future.completeExceptionally(throwable);
+                    } else {
+                        future.complete(transactionEvent);
+                    }
+                });
+        return future;
+    }
+
+    public void onBlock(BlockEvent blockEvent) {
+        if (tracked.isEmpty()) {
+            return;
+        }
+
+        Object source =
+                blockEvent.getPeer() != null ? blockEvent.getPeer() : blockEvent.getEventHub();
+        int completed = 0;
+        for (BlockEvent.TransactionEvent transactionEvent : blockEvent.getTransactionEvents()) {
+            Tracked entry = tracked.get(transactionEvent.getTransactionID());
+            if (entry == null) {
+                continue;
+            }
+
+            boolean done;
+            synchronized (entry) {
+                if (isDuplicate(transactionEvent) && entry.peers.contains(source)) {
+                    continue; // a resent envelope, the first occurrence of the txID decides
+                }
+                entry.peers.add(source);
+                done = !transactionEvent.isValid() || entry.peers.size() >= entry.confirmations;
+            }
+            if (done && entry.future.complete(transactionEvent)) {
+                completed++;
+            }
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug(
+                    "Block {} committed {} tracked transactions, {} still waiting",
+                    blockEvent.getBlockNumber(),
+                    completed,
+                    tracked.size());
+        }
+    }
+
+    private static boolean isDuplicate(BlockEvent.TransactionEvent transactionEvent) {
+        return transactionEvent.getValidationCode()
+                == FabricTransaction.TxValidationCode.DUPLICATE_TXID_VALUE;
+    }
+
+    public int getTrackedCount() {
+        return tracked.size();
+    }
+
+    private static class Tracked {
+        private CompletableFuture<BlockEvent.TransactionEvent> future = new CompletableFuture<>();
+        private int confirmations;
+        private Set<Object> peers = new HashSet<>(2); // which reported the transaction
+        private int waiters = 0;
+
+        Tracked(int confirmations) {
+            this.confirmations = confirmations;
+        }
+
+        /** The future of one more caller, tracking stops once every caller cancelled its own. */
+        CompletableFuture<BlockEvent.TransactionEvent> join() {
+            synchronized (this) {
+                waiters++;
+            }
+            CompletableFuture<BlockEvent.TransactionEvent> waiter = dependent(future);
+            waiter.whenComplete(
+                    (transactionEvent, throwable) -> {
+                        if (!waiter.isCancelled() || future.isDone()) {
+                            return;
+                        }
+                        boolean last;
+                        synchronized (this) {
+                            last = --waiters == 0;
+                        }
+                        if (last) {
+                            future.cancel(false);
+                        }
+                    });
+            return waiter;
+        }
+    }
+
+    /** How many of the event peers must report a transaction before it counts as committed. */
+    public enum Strategy {
+        FIRST,
+        QUORUM,
+        ALL;
+
+        public int getConfirmations(int eventPeers) {
+            switch (this) {
+                case QUORUM:
+                    return eventPeers / 2 + 1;
+                case ALL:
+                    return eventPeers;
+                case FIRST:
+                default:
+                    return 1;
+            }
+        }
+
+        public static Strategy parse(String strategy) throws Exception {
+            try {
+                return valueOf(strategy.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new Exception(
+                        "Unknown commit strategy: " + strategy + ", use first, quorum or all");
+            }
+        }
+    }
+}
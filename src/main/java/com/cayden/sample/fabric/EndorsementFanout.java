@@ -0,0 +1,200 @@
+package com.cayden.sample.fabric;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import org.hyperledger.fabric.protos.peer.FabricProposal;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+import org.hyperledger.fabric.sdk.transaction.TransactionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Sends one signed proposal to every peer separately and completes as soon as the endorsement
+ * requirement is met or can no longer be met. Proposals use the asynchronous gRPC call of the
+ * peer, no thread is held while waiting. Each peer is bounded by the proposal wait time of the
+ * transaction context, peers still running when the round completes are cancelled and scored
+ * with the time they took so far.
+ */
+public class EndorsementFanout {
+    private Logger logger = LoggerFactory.getLogger(EndorsementFanout.class);
+
+    private static final Timer timeoutHandler = new HashedWheelTimer();
+
+    private FabricInnerFunction fabricInnerFunction;
+    private EndorserScoreboard scoreboard;
+
+    public EndorsementFanout(
+            FabricInnerFunction fabricInnerFunction, EndorserScoreboard scoreboard) {
+        this.fabricInnerFunction = fabricInnerFunction;
+        this.scoreboard = scoreboard;
+    }
+
+    public CompletableFuture<Collection<ProposalResponse>> send(
+            Collection<Peer> peers,
+            FabricProposal.SignedProposal signedProposal,
+            TransactionContext transactionContext,
+            EndorsementRequirement requirement) {
+        Round round = new Round(peers, requirement);
+        if (peers.isEmpty()) {
+            round.future.completeExceptionally(new Exception("No endorser to send proposal"));
+            return round.future;
+        }
+
+        for (Peer peer : peers) {
+            sendToPeer(round, peer, signedProposal, transactionContext);
+        }
+        return round.future;
+    }
+
+    private void sendToPeer(
+            Round round,
+            Peer peer,
+            FabricProposal.SignedProposal signedProposal,
+            TransactionContext transactionContext) {
+        long startTime = System.currentTimeMillis();
+        CompletableFuture<ProposalResponse> future;
+        try {
+            future =
+                    fabricInnerFunction.sendProposalAsync(
+                            peer, signedProposal, transactionContext);
+        } catch (Exception e) {
+            scoreboard.onError(peer, 0);
+            round.onResponse(peer, null, e);
+            return;
+        }
+
+        round.track(peer, future);
+        Timeout timeout =
+                timeoutHandler.newTimeout(
+                        new TimerTask() {
+                            @Override
+                            public void run(Timeout timeout) throws Exception {
+                                if (future.cancel(true)) {
+                                    scoreboard.onError(
+                                            peer, System.currentTimeMillis() - startTime);
+                                    round.onResponse(
+                                            peer,
+                                            null,
+                                            new TimeoutException(
+                                                    "Wait proposal response of "
+                                                            + peer.getName()
+                                                            + " timeout"));
+                                }
+                            }
+                        },
+                        transactionContext.getProposalWaitTime(),
+                        TimeUnit.MILLISECONDS);
+
+        future.whenComplete(
+                new BiConsumer<ProposalResponse, Throwable>() {
+                    @Override
+                    public void accept(ProposalResponse response, Throwable throwable) {
+                        long latency = System.currentTimeMillis() - startTime;
+                        if (future.isCancelled()) {
+                            // A timeout is already scored, a straggler cancelled after the
+                            // round completed was at least this slow
+                            if (timeout.cancel()) {
+                                scoreboard.onCancel(peer, latency);
+                            }
+                            return;
+                        }
+                        timeout.cancel();
+
+                        // The SDK turns transport errors into responses without a peer response
+                        if (response == null || response.getProposalResponse() == null) {
+                            scoreboard.onError(peer, latency);
+                        } else {
+                            scoreboard.onSuccess(peer, latency);
+                        }
+                        round.onResponse(
+                                peer,
+                                response,
+                                throwable == null ? null : new Exception(throwable));
+                    }
+                });
+    }
+
+    private class Round {
+        private EndorsementRequirement requirement;
+        private Set<Peer> pendingPeers;
+        private Map<Peer, CompletableFuture<ProposalResponse>> tasks = new HashMap<>();
+        private List<ProposalResponse> responses = new LinkedList<>();
+        private List<ProposalResponse> successResponses = new LinkedList<>();
+        private Exception lastException;
+        private boolean done = false;
+        private CompletableFuture<Collection<ProposalResponse>> future = new CompletableFuture<>();
+
+        Round(Collection<Peer> peers, EndorsementRequirement requirement) {
+            this.requirement = requirement;
+            this.pendingPeers = new LinkedHashSet<>(peers);
+        }
+
+        synchronized void track(Peer peer, CompletableFuture<ProposalResponse> task) {
+            if (done) {
+                task.cancel(true);
+            } else if (pendingPeers.contains(peer)) {
+                tasks.put(peer, task);
+            }
+        }
+
+        void onResponse(Peer peer, ProposalResponse response, Exception exception) {
+            List<CompletableFuture<ProposalResponse>> stragglers;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+
+                pendingPeers.remove(peer);
+                tasks.remove(peer);
+                if (response != null) {
+                    responses.add(response);
+                    if (response.getStatus() == ProposalResponse.Status.SUCCESS) {
+                        successResponses.add(response);
+                    }
+                } else {
+                    logger.warn("Send proposal to {} exception: {}", peer.getName(), exception);
+                    lastException = exception;
+                }
+
+                if (!pendingPeers.isEmpty()
+                        && !requirement.isSatisfied(successResponses)
+                        && requirement.isReachable(successResponses, pendingPeers)) {
+                    return;
+                }
+
+                done = true;
+                stragglers = new ArrayList<>(tasks.values());
+                tasks.clear();
+            }
+
+            if (!stragglers.isEmpty()) {
+                logger.debug("Endorsement round finished, cancel {} peers", stragglers.size());
+                for (CompletableFuture<ProposalResponse> task : stragglers) {
+                    task.cancel(true);
+                }
+            }
+
+            if (responses.isEmpty() && lastException != null) {
+                future.completeExceptionally(lastException);
+            } else {
+                future.complete(responses);
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.cayden.sample.fabric;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnknownFieldSet;
+import org.hyperledger.fabric.protos.common.MspPrincipal;
+import org.hyperledger.fabric.protos.common.Policies;
+import org.hyperledger.fabric.protos.msp.Identities;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chaincode signature policy flattened into its minimal alternatives. Each alternative is the
+ * number of endorsements needed from each MSP, e.g. OR('Org1MSP.peer', AND('Org2MSP.peer',
+ * 'Org3MSP.peer')) is [{Org1MSP: 1}, {Org2MSP: 1, Org3MSP: 1}].
+ *
+ * <p>The alternatives are for planning which peers to ask only, a large policy is cut at
+ * MAX_ALTERNATIVES of them. Whether endorsements satisfy the policy is decided on the rule itself,
+ * the way the peers validate it.
+ */
+public class EndorsementPolicy {
+    // Upper bound for n-out-of combinations, large policies are cut rather than exploding
+    private static final int MAX_ALTERNATIVES = 256;
+    private static final int CHAINCODE_DATA_POLICY_FIELD = 5;
+
+    private List<Map<String, Integer>> alternatives;
+    private Policies.SignaturePolicy rule;
+    private List<String> principalMspIds; // of each identity, null if no peer can match it
+
+    private EndorsementPolicy(
+            List<Map<String, Integer>> alternatives,
+            Policies.SignaturePolicy rule,
+            List<String> principalMspIds) {
+        this.alternatives = alternatives;
+        this.rule = rule;
+        this.principalMspIds = principalMspIds;
+    }
+
+    public static EndorsementPolicy parseFrom(Policies.SignaturePolicyEnvelope envelope)
+            throws Exception {
+        List<Map<String, Integer>> alternatives =
+                alternativesOf(envelope.getRule(), envelope.getIdentitiesList());
+        List<String> principalMspIds = new ArrayList<>();
+        for (MspPrincipal.MSPPrincipal principal : envelope.getIdentitiesList()) {
+            principalMspIds.add(peerMspIdOf(principal));
+        }
+        return new EndorsementPolicy(minimize(alternatives), envelope.getRule(), principalMspIds);
+    }
+
+    /** Parse the policy field of the lscc ChaincodeData returned by "getccdata". */
+    public static EndorsementPolicy parseFromChaincodeData(ByteString chaincodeData)
+            throws Exception {
+        UnknownFieldSet.Field policyField =
+                UnknownFieldSet.parseFrom(chaincodeData).getField(CHAINCODE_DATA_POLICY_FIELD);
+        if (policyField == null || policyField.getLengthDelimitedList().isEmpty()) {
+            throw new Exception("No endorsement policy in chaincode data");
+        }
+
+        return parseFrom(
+                Policies.SignaturePolicyEnvelope.parseFrom(
+                        policyField.getLengthDelimitedList().get(0)));
+    }
+
+    public List<Map<String, Integer>> getAlternatives() {
+        return alternatives;
+    }
+
+    /** True if endorsements of mspCounts peers satisfy the rule, each used for one principal. */
+    public boolean isSatisfiedBy(Map<String, Integer> mspCounts) {
+        return evaluate(rule, new HashMap<>(mspCounts));
+    }
+
+    // Like the cauthdsl evaluator of the peers: children are tried in order, each one satisfied
+    // takes the endorsements it used from unused
+    private boolean evaluate(Policies.SignaturePolicy node, Map<String, Integer> unused) {
+        switch (node.getTypeCase()) {
+            case SIGNED_BY:
+                if (node.getSignedBy() < 0 || node.getSignedBy() >= principalMspIds.size()) {
+                    return false;
+                }
+                String mspId = principalMspIds.get(node.getSignedBy());
+                Integer count = mspId == null ? null : unused.get(mspId);
+                if (count == null || count <= 0) {
+                    return false;
+                }
+                unused.put(mspId, count - 1);
+                return true;
+
+            case N_OUT_OF:
+                int satisfied = 0;
+                for (Policies.SignaturePolicy child : node.getNOutOf().getRulesList()) {
+                    Map<String, Integer> childUnused = new HashMap<>(unused);
+                    if (evaluate(child, childUnused)) {
+                        satisfied++;
+                        unused.clear();
+                        unused.putAll(childUnused);
+                    }
+                }
+                return satisfied >= node.getNOutOf().getN();
+
+            default:
+                return false;
+        }
+    }
+
+    public static String getEndorserMspId(ProposalResponse response) {
+        try {
+            ByteString endorser = response.getProposalResponse().getEndorsement().getEndorser();
+            return Identities.SerializedIdentity.parseFrom(endorser).getMspid();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public static Map<String, Integer> countMspIds(Iterable<ProposalResponse> responses) {
+        Map<String, Integer> mspCounts = new HashMap<>();
+        for (ProposalResponse response : responses) {
+            String mspId = getEndorserMspId(response);
+            if (mspId != null) {
+                Integer count = mspCounts.get(mspId);
+                mspCounts.put(mspId, count == null ? 1 : count + 1);
+            }
+        }
+        return mspCounts;
+    }
+
+    private static boolean covers(Map<String, Integer> mspCounts, Map<String, Integer> needed) {
+        for (Map.Entry<String, Integer> entry : needed.entrySet()) {
+            Integer count = mspCounts.get(entry.getKey());
+            if (count == null || count < entry.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Map<String, Integer>> alternativesOf(
+            Policies.SignaturePolicy rule, List<MspPrincipal.MSPPrincipal> identities)
+            throws Exception {
+        switch (rule.getTypeCase()) {
+            case SIGNED_BY:
+                String mspId = peerMspIdOf(identities.get(rule.getSignedBy()));
+                if (mspId == null) {
+                    return Collections.emptyList(); // peers can not satisfy this principal
+                }
+                Map<String, Integer> single = new HashMap<>();
+                single.put(mspId, 1);
+                return Collections.singletonList(single);
+
+            case N_OUT_OF:
+                List<List<Map<String, Integer>>> children = new ArrayList<>();
+                for (Policies.SignaturePolicy child : rule.getNOutOf().getRulesList()) {
+                    children.add(alternativesOf(child, identities));
+                }
+                List<Map<String, Integer>> result = new LinkedList<>();
+                chooseN(children, 0, rule.getNOutOf().getN(), new HashMap<>(), result);
+                return minimize(result);
+
+            default:
+                throw new Exception("Unknown signature policy type: " + rule.getTypeCase());
+        }
+    }
+
+    // Every choice of n children, each child contributing one of its alternatives
+    private static void chooseN(
+            List<List<Map<String, Integer>>> children,
+            int from,
+            int n,
+            Map<String, Integer> current,
+            List<Map<String, Integer>> result) {
+        if (result.size() >= MAX_ALTERNATIVES) {
+            return;
+        }
+        if (n <= 0) {
+            result.add(current);
+            return;
+        }
+        if (children.size() - from < n) {
+            return;
+        }
+
+        for (Map<String, Integer> alternative : children.get(from)) {
+            chooseN(children, from + 1, n - 1, merge(current, alternative), result);
+        }
+        chooseN(children, from + 1, n, current, result);
+    }
+
+    // One endorsement can only be used once, so two principals of one MSP need two endorsements
+    private static Map<String, Integer> merge(Map<String, Integer> a, Map<String, Integer> b) {
+        Map<String, Integer> merged = new HashMap<>(a);
+        for (Map.Entry<String, Integer> entry : b.entrySet()) {
+            Integer count = merged.get(entry.getKey());
+            merged.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+        }
+        return merged;
+    }
+
+    // Drop every alternative which needs a superset of another one
+    private static List<Map<String, Integer>> minimize(List<Map<String, Integer>> alternatives) {
+        List<Map<String, Integer>> sorted = new ArrayList<>(alternatives);
+        sorted.sort(Comparator.comparingInt(EndorsementPolicy::size));
+
+        List<Map<String, Integer>> minimal = new ArrayList<>();
+        for (Map<String, Integer> alternative : sorted) {
+            boolean dominated = false;
+            Iterator<Map<String, Integer>> iterator = minimal.iterator();
+            while (iterator.hasNext() && !dominated) {
+                dominated = covers(alternative, iterator.next());
+            }
+            if (!dominated) {
+                minimal.add(alternative);
+            }
+        }
+        return minimal;
+    }
+
+    static int size(Map<String, Integer> alternative) {
+        int size = 0;
+        for (Integer count : alternative.values()) {
+            size += count;
+        }
+        return size;
+    }
+
+    private static String peerMspIdOf(MspPrincipal.MSPPrincipal principal) throws Exception {
+        switch (principal.getPrincipalClassification()) {
+            case ROLE:
+                MspPrincipal.MSPRole role =
+                        MspPrincipal.MSPRole.parseFrom(principal.getPrincipal());
+                switch (role.getRole()) {
+                    case MEMBER:
+                    case PEER:
+                        return role.getMspIdentifier();
+                    default:
+                        return null;
+                }
+            case ORGANIZATION_UNIT:
+                return MspPrincipal.OrganizationUnit.parseFrom(principal.getPrincipal())
+                        .getMspIdentifier();
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return alternatives.toString();
+    }
+}
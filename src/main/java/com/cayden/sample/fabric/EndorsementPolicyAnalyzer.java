@@ -5,88 +5,263 @@ import org.hyperledger.fabric.sdk.ProposalResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.*;
 
+/**
+ * Groups the successful responses by chaincode result and accepts the largest consistent group
+ * satisfying a Rule. Results are compared by SHA-256 digest, which is only computed once a second
+ * successful response shows up. Nothing is logged or formatted on success, info() builds the
+ * diagnostics when it is called.
+ */
 public class EndorsementPolicyAnalyzer {
     private Logger logger = LoggerFactory.getLogger(EndorsementPolicyAnalyzer.class);
 
-    private List<ProposalResponse> successResponse;
-    private List<ProposalResponse> failedResponse;
-    private Set<ByteString> payloadSet;
+    private static ThreadLocal<MessageDigest> sha256 =
+            ThreadLocal.withInitial(
+                    () -> {
+                        try {
+                            return MessageDigest.getInstance("SHA-256");
+                        } catch (Exception e) {
+                            return null;
+                        }
+                    });
+
+    private Rule rule;
+    private List<ProposalResponse> successResponse = new ArrayList<>();
+    private List<ProposalResponse> failedResponse = Collections.emptyList();
+    private List<Group> groups = Collections.emptyList();
+    private Group accepted;
 
     public EndorsementPolicyAnalyzer(Collection<ProposalResponse> proposalResponses) {
-        successResponse = new LinkedList<>();
-        failedResponse = new LinkedList<>();
-        payloadSet = new HashSet<>();
+        this(proposalResponses, Rule.unanimous());
+    }
+
+    public EndorsementPolicyAnalyzer(Collection<ProposalResponse> proposalResponses, Rule rule) {
+        this.rule = rule;
 
         for (ProposalResponse response : proposalResponses) {
             if (response.getStatus() == ProposalResponse.Status.SUCCESS) {
                 ByteString payload = response.getProposalResponse().getResponse().getPayload();
-
-                payloadSet.add(payload);
-
-                logger.info(
-                        "[√] Got success response from peer:{} , payload:{}",
-                        response.getPeer().getName(),
-                        payload.toStringUtf8());
+                if (logger.isDebugEnabled()) {
+                    logger.debug(
+                            "[√] Got success response from peer:{} , payload size:{}",
+                            response.getPeer().getName(),
+                            payload.size());
+                }
                 successResponse.add(response);
+                addToGroup(response, payload);
             } else {
-                String status = response.getStatus().toString();
-                logger.error(
+                logger.warn(
                         "[×] Got failed response from peer:{}, status:{}, error message:{}",
                         response.getPeer().getName(),
-                        status,
+                        response.getStatus(),
                         response.getMessage());
+                if (failedResponse.isEmpty()) {
+                    failedResponse = new LinkedList<>();
+                }
                 failedResponse.add(response);
             }
         }
+
+        for (Group group : groups) {
+            if (rule.accepts(group, successResponse.size())
+                    && (accepted == null || group.responses.size() > accepted.responses.size())) {
+                accepted = group;
+            }
+        }
     }
 
     public boolean allSuccess() {
-        return failedResponse.isEmpty() && !successResponse.isEmpty() && samePayload();
+        return failedResponse.isEmpty() && hasSuccess();
     }
 
+    /** True if a consistent group of successful responses satisfies the rule. */
     public boolean hasSuccess() {
-        return !successResponse.isEmpty() && samePayload();
+        return accepted != null;
     }
 
-    public byte[] getPayload() {
-        if (hasSuccess()) {
-            for (ByteString payload : payloadSet) {
-                return payload.toByteArray(); // return first element
-            }
-        } else {
-            return null;
+    /** Successful responses still needed before the rule can be satisfied. */
+    public int getMissing() {
+        if (accepted != null) {
+            return 0;
+        }
+
+        int missing = rule.getMissing(null);
+        for (Group group : groups) {
+            missing = Math.min(missing, rule.getMissing(group));
         }
-        return null;
+        return missing;
+    }
+
+    public List<ProposalResponse> getSuccessResponses() {
+        return successResponse;
+    }
+
+    public byte[] getPayload() {
+        return accepted == null ? null : accepted.payload.toByteArray();
     }
 
     public String info() {
-        String infoStr =
-                "Success endorser: "
-                        + successResponse.size()
-                        + " Failed endorser: "
-                        + failedResponse.size()
-                        + "[";
+        StringBuilder info = new StringBuilder();
+        info.append("Success endorser: ")
+                .append(successResponse.size())
+                .append(" Failed endorser: ")
+                .append(failedResponse.size());
+        if (groups.size() > 1) {
+            info.append(" Inconsistent results: ").append(groups.size());
+        }
+        if (!successResponse.isEmpty() && accepted == null) {
+            info.append(" Rule not satisfied: ").append(rule);
+        }
 
+        info.append("[");
         for (ProposalResponse failedResponse : failedResponse) {
-            infoStr += dumpResponse(failedResponse) + ", ";
+            appendResponse(info, failedResponse).append(", ");
+        }
+        return info.append("]").toString();
+    }
+
+    private StringBuilder appendResponse(StringBuilder info, ProposalResponse response) {
+        return info.append("\"peer: ")
+                .append(response.getPeer().getName())
+                .append(" status: ")
+                .append(response.getStatus())
+                .append(" message: ")
+                .append(response.getMessage())
+                .append("\"");
+    }
+
+    private void addToGroup(ProposalResponse response, ByteString payload) {
+        if (groups.isEmpty()) {
+            // The common single response case needs neither a digest nor a map
+            groups = new ArrayList<>(1);
+            groups.add(new Group(payload, response));
+            return;
+        }
+
+        // Only results of the same size can be equal, digest them on demand
+        ByteString digest = null;
+        for (Group group : groups) {
+            if (group.payload.size() != payload.size()) {
+                continue;
+            }
+            if (digest == null) {
+                digest = digest(payload);
+            }
+            if (group.getDigest().equals(digest)) {
+                group.responses.add(response);
+                return;
+            }
+        }
+
+        Group group = new Group(payload, response);
+        group.digest = digest;
+        groups.add(group);
+    }
+
+    private static ByteString digest(ByteString payload) {
+        MessageDigest messageDigest = sha256.get();
+        if (messageDigest == null) {
+            return payload; // compare the whole payload instead
+        }
+
+        for (ByteBuffer buffer : payload.asReadOnlyByteBufferList()) {
+            messageDigest.update(buffer);
         }
-        infoStr += "]";
-        return infoStr;
+        return ByteString.copyFrom(messageDigest.digest()); // digest() also resets it
     }
 
-    private String dumpResponse(ProposalResponse response) {
-        return "\"peer: "
-                + response.getPeer().getName()
-                + " status: "
-                + response.getStatus()
-                + " message: "
-                + response.getMessage()
-                + "\"";
+    /** Successful responses with the same chaincode result. */
+    private static class Group {
+        private ByteString payload;
+        private ByteString digest;
+        private List<ProposalResponse> responses = new ArrayList<>(2);
+
+        Group(ByteString payload, ProposalResponse first) {
+            this.payload = payload;
+            this.responses.add(first);
+        }
+
+        ByteString getDigest() {
+            if (digest == null) {
+                digest = EndorsementPolicyAnalyzer.digest(payload);
+            }
+            return digest;
+        }
     }
 
-    private boolean samePayload() {
-        return payloadSet.size() == 1;
+    /**
+     * When a query result is accepted. unanimous() wants every successful peer to agree, which is
+     * the original behavior, agreeing(n) wants n peers with the same result (n of m) and
+     * requireOrg() adds a minimum count of agreeing peers from an organization.
+     */
+    public static class Rule {
+        private static final Rule UNANIMOUS = new Rule(0, Collections.emptyMap());
+
+        private int minAgreeing; // 0 means all successful responses
+        private Map<String, Integer> minPerOrg;
+
+        private Rule(int minAgreeing, Map<String, Integer> minPerOrg) {
+            this.minAgreeing = minAgreeing;
+            this.minPerOrg = minPerOrg;
+        }
+
+        public static Rule unanimous() {
+            return UNANIMOUS;
+        }
+
+        public static Rule agreeing(int minAgreeing) {
+            return new Rule(Math.max(minAgreeing, 1), Collections.emptyMap());
+        }
+
+        public Rule requireOrg(String mspId, int minCount) {
+            Map<String, Integer> orgs = new HashMap<>(minPerOrg);
+            orgs.put(mspId, minCount);
+            return new Rule(minAgreeing, orgs);
+        }
+
+        public Rule requireOrgs(Collection<String> mspIds) {
+            Rule rule = this;
+            for (String mspId : mspIds) {
+                rule = rule.requireOrg(mspId, 1);
+            }
+            return rule;
+        }
+
+        private boolean accepts(Group group, int successCount) {
+            int needed = minAgreeing == 0 ? successCount : minAgreeing;
+            return group.responses.size() >= needed && getOrgMissing(group) == 0;
+        }
+
+        private int getMissing(Group group) {
+            int size = group == null ? 0 : group.responses.size();
+            int missing = Math.max(Math.max(minAgreeing, 1) - size, 0);
+            return Math.max(missing, getOrgMissing(group));
+        }
+
+        private int getOrgMissing(Group group) {
+            if (minPerOrg.isEmpty()) {
+                return 0;
+            }
+
+            Map<String, Integer> mspCounts =
+                    group == null
+                            ? Collections.emptyMap()
+                            : EndorsementPolicy.countMspIds(group.responses);
+            int missing = 0;
+            for (Map.Entry<String, Integer> entry : minPerOrg.entrySet()) {
+                Integer count = mspCounts.get(entry.getKey());
+                missing += Math.max(entry.getValue() - (count == null ? 0 : count), 0);
+            }
+            return missing;
+        }
+
+        @Override
+        public String toString() {
+            return (minAgreeing == 0 ? "all agreeing" : minAgreeing + " agreeing")
+                    + (minPerOrg.isEmpty() ? "" : " with " + minPerOrg);
+        }
     }
 }
@@ -0,0 +1,18 @@
+package com.cayden.sample.fabric;
+
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+
+import java.util.Collection;
+
+/** Decides when an endorsement fan-out has collected enough successful responses. */
+public interface EndorsementRequirement {
+    boolean isSatisfied(Collection<ProposalResponse> successResponses);
+
+    /** False once the pending peers can no longer get the requirement satisfied. */
+    boolean isReachable(
+            Collection<ProposalResponse> successResponses, Collection<Peer> pendingPeers);
+
+    /** The consistent subset of successResponses which satisfies the requirement. */
+    Collection<ProposalResponse> select(Collection<ProposalResponse> successResponses);
+}
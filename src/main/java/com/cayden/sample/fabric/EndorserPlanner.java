@@ -0,0 +1,284 @@
+package com.cayden.sample.fabric;
+
+import org.hyperledger.fabric.sdk.ChaincodeID;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.HFClient;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+import org.hyperledger.fabric.sdk.QueryByChaincodeRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Chooses the peers a transaction proposal is sent to. The chaincode endorsement policy is pulled
+ * from lscc and cached, each proposal only goes to the smallest set of peers which can satisfy it
+ * and responses are accepted by the policy instead of "all peers". If some of them fail, the next
+ * ranked peers of the missing MSPs are asked, see fallbackPeers().
+ */
+public class EndorserPlanner {
+    private Logger logger = LoggerFactory.getLogger(EndorserPlanner.class);
+
+    // Same property the SDK network config uses for the organization of a peer
+    public static final String PEER_MSPID_PROPERTY =
+            "org.hyperledger.fabric.sdk.peer.organization_mspid";
+    private static final long POLICY_REFRESH_INTERVAL = 300000; // ms
+    private static final long POLICY_RETRY_INTERVAL = 30000; // ms
+
+    private Channel channel;
+    private HFClient hfClient;
+    private String chainCodeName;
+    private long proposalWaitTime;
+    private int endorserQuorum;
+    private Collection<Peer> endorsers;
+    private EndorserScoreboard scoreboard;
+    private Map<Peer, String> peerMspIds = new ConcurrentHashMap<>();
+
+    private volatile EndorsementPolicy policy;
+    private volatile long policyExpireTime = 0;
+    private AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    public EndorserPlanner(
+            Channel channel,
+            HFClient hfClient,
+            String chainCodeName,
+            long proposalWaitTime,
+            int endorserQuorum,
+            Collection<Peer> endorsers,
+            EndorserScoreboard scoreboard) {
+        this.channel = channel;
+        this.hfClient = hfClient;
+        this.chainCodeName = chainCodeName;
+        this.proposalWaitTime = proposalWaitTime;
+        this.endorserQuorum = endorserQuorum;
+        this.endorsers = endorsers;
+        this.scoreboard = scoreboard;
+
+        for (Peer endorser : endorsers) {
+            String mspId = endorser.getProperties().getProperty(PEER_MSPID_PROPERTY);
+            if (mspId != null) {
+                peerMspIds.put(endorser, mspId);
+            }
+        }
+    }
+
+    public Plan plan() {
+        if (endorserQuorum > 0) {
+            // Configured explicitly, overrides the chaincode policy
+            return new Plan(
+                    scoreboard.rank(endorsers), new QuorumRequirement(endorserQuorum));
+        }
+
+        EndorsementPolicy currentPolicy = getPolicy();
+        if (currentPolicy == null) {
+            return new Plan(
+                    scoreboard.rank(endorsers), new QuorumRequirement(endorsers.size()));
+        }
+
+        return new Plan(
+                choosePeers(currentPolicy), new PolicyRequirement(currentPolicy, peerMspIds));
+    }
+
+    /** Peers without a configured mspId learn it from the identity of their endorsements. */
+    public void learn(Collection<ProposalResponse> responses) {
+        for (ProposalResponse response : responses) {
+            if (response.getStatus() != ProposalResponse.Status.SUCCESS
+                    || response.getPeer() == null
+                    || peerMspIds.containsKey(response.getPeer())) {
+                continue;
+            }
+
+            String mspId = EndorsementPolicy.getEndorserMspId(response);
+            if (mspId != null) {
+                peerMspIds.put(response.getPeer(), mspId);
+            }
+        }
+    }
+
+    /** Cached policy, an expired one is refreshed in background and used until then. */
+    public EndorsementPolicy getPolicy() {
+        if (System.currentTimeMillis() >= policyExpireTime
+                && refreshing.compareAndSet(false, true)) {
+            CompletableFuture.runAsync(this::refreshPolicy);
+        }
+        return policy;
+    }
+
+    private void refreshPolicy() {
+        long now = System.currentTimeMillis();
+        try {
+            policy = fetchPolicy();
+            policyExpireTime = now + POLICY_REFRESH_INTERVAL;
+            logger.info("Endorsement policy of {}: {}", chainCodeName, policy);
+        } catch (Exception e) {
+            policyExpireTime = now + POLICY_RETRY_INTERVAL;
+            logger.warn("Pull endorsement policy of {} failed: {}", chainCodeName, e.getMessage());
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    private EndorsementPolicy fetchPolicy() throws Exception {
+        QueryByChaincodeRequest request = hfClient.newQueryProposalRequest();
+        request.setChaincodeID(ChaincodeID.newBuilder().setName("lscc").build());
+        request.setFcn("getccdata");
+        request.setArgs(channel.getName(), chainCodeName);
+        request.setProposalWaitTime(proposalWaitTime);
+
+        Collection<ProposalResponse> responses = channel.queryByChaincode(request, endorsers);
+        learn(responses);
+        for (ProposalResponse response : responses) {
+            if (response.getStatus() == ProposalResponse.Status.SUCCESS) {
+                return EndorsementPolicy.parseFromChaincodeData(
+                        response.getProposalResponse().getResponse().getPayload());
+            }
+        }
+
+        throw new Exception(
+                "Query lscc getccdata failed: " + new EndorsementPolicyAnalyzer(responses).info());
+    }
+
+    private Collection<Peer> choosePeers(EndorsementPolicy currentPolicy) {
+        // Best scored peers of each organization first
+        List<Peer> ranked = scoreboard.rank(endorsers);
+        Collection<Peer> chosen = choosePeers(currentPolicy, ranked, Collections.emptyMap());
+        // Not enough known peers for any alternative, let every endorser try
+        return chosen == null ? ranked : chosen;
+    }
+
+    /**
+     * The peers to ask when the planned ones left the policy unsatisfied: the next ranked peers,
+     * not asked yet, of the MSPs still missing for the cheapest alternative given the successful
+     * endorsements. Every peer not asked yet if no alternative can be completed from known peers,
+     * none if there is nobody left to ask.
+     */
+    public Collection<Peer> fallbackPeers(
+            Collection<ProposalResponse> successResponses, Collection<Peer> asked) {
+        EndorsementPolicy currentPolicy = policy;
+        if (endorserQuorum > 0 || currentPolicy == null) {
+            return Collections.emptyList(); // every endorser was asked already
+        }
+
+        List<Peer> ranked = new LinkedList<>(scoreboard.rank(endorsers));
+        ranked.removeAll(asked);
+        Collection<Peer> chosen =
+                choosePeers(
+                        currentPolicy, ranked, EndorsementPolicy.countMspIds(successResponses));
+        return chosen == null ? ranked : chosen;
+    }
+
+    /**
+     * The peers of the cheapest alternative which ranked can complete on top of the endorsements
+     * counted in have, null if there is none.
+     */
+    private Collection<Peer> choosePeers(
+            EndorsementPolicy currentPolicy, List<Peer> ranked, Map<String, Integer> have) {
+        Map<String, List<Peer>> peersByMsp = new HashMap<>();
+        for (Peer endorser : ranked) {
+            String mspId = peerMspIds.get(endorser);
+            if (mspId == null) {
+                continue;
+            }
+            List<Peer> peers = peersByMsp.get(mspId);
+            if (peers == null) {
+                peers = new LinkedList<>();
+                peersByMsp.put(mspId, peers);
+            }
+            peers.add(endorser);
+        }
+
+        // Fewest endorsements first, then the lowest total score of the peers it would use
+        Map<String, Integer> cheapest = null;
+        double cheapestScore = 0;
+        for (Map<String, Integer> alternative : currentPolicy.getAlternatives()) {
+            Map<String, Integer> missing = missing(alternative, have);
+            if (!isAvailable(missing, peersByMsp)) {
+                continue;
+            }
+
+            double score = scoreOf(missing, peersByMsp);
+            if (cheapest == null
+                    || EndorsementPolicy.size(missing) < EndorsementPolicy.size(cheapest)
+                    || (EndorsementPolicy.size(missing) == EndorsementPolicy.size(cheapest)
+                            && score < cheapestScore)) {
+                cheapest = missing;
+                cheapestScore = score;
+            }
+        }
+
+        if (cheapest == null) {
+            return null;
+        }
+
+        List<Peer> chosen = new LinkedList<>();
+        for (Map.Entry<String, Integer> entry : cheapest.entrySet()) {
+            chosen.addAll(peersByMsp.get(entry.getKey()).subList(0, entry.getValue()));
+        }
+        return chosen;
+    }
+
+    private static Map<String, Integer> missing(
+            Map<String, Integer> alternative, Map<String, Integer> have) {
+        Map<String, Integer> missing = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : alternative.entrySet()) {
+            Integer count = have.get(entry.getKey());
+            int needed = entry.getValue() - (count == null ? 0 : count);
+            if (needed > 0) {
+                missing.put(entry.getKey(), needed);
+            }
+        }
+        return missing;
+    }
+
+    private double scoreOf(Map<String, Integer> alternative, Map<String, List<Peer>> peersByMsp) {
+        double score = 0;
+        for (Map.Entry<String, Integer> entry : alternative.entrySet()) {
+            for (Peer peer : peersByMsp.get(entry.getKey()).subList(0, entry.getValue())) {
+                score += scoreboard.getScore(peer);
+            }
+        }
+        return score;
+    }
+
+    private boolean isAvailable(
+            Map<String, Integer> alternative, Map<String, List<Peer>> peersByMsp) {
+        for (Map.Entry<String, Integer> entry : alternative.entrySet()) {
+            List<Peer> peers = peersByMsp.get(entry.getKey());
+            if (peers == null || peers.size() < entry.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Map<Peer, String> getPeerMspIds() {
+        return peerMspIds;
+    }
+
+    public static class Plan {
+        private Collection<Peer> peers;
+        private EndorsementRequirement requirement;
+
+        public Plan(Collection<Peer> peers, EndorsementRequirement requirement) {
+            this.peers = peers;
+            this.requirement = requirement;
+        }
+
+        public Collection<Peer> getPeers() {
+            return peers;
+        }
+
+        public EndorsementRequirement getRequirement() {
+            return requirement;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.cayden.sample.fabric;
+
+import com.google.protobuf.ByteString;
+import com.webank.wecross.stub.Request;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.protos.peer.FabricProposal;
+
+/**
+ * Endorser request which carries its signed proposal already parsed, with the txID and creator
+ * taken out of the header. Layers in the same process use these directly; the data bytes are the
+ * serialized signed proposal and are only built when someone asks for them, e.g. a remote
+ * connection.
+ */
+public class EndorserRequest extends Request {
+    private FabricProposal.SignedProposal signedProposal;
+    private FabricProposal.Proposal proposal;
+    private ByteString creator;
+    private String txID;
+    private long deadline; // 0 for none, e.g. a request from another process
+
+    public EndorserRequest(
+            FabricProposal.SignedProposal signedProposal,
+            FabricProposal.Proposal proposal,
+            ByteString creator,
+            String txID) {
+        this.signedProposal = signedProposal;
+        this.proposal = proposal;
+        this.creator = creator;
+        this.txID = txID;
+    }
+
+    /** The request itself if it is an EndorserRequest, otherwise its data parsed once. */
+    public static EndorserRequest from(Request request) throws Exception {
+        if (request instanceof EndorserRequest) {
+            return (EndorserRequest) request;
+        }
+
+        FabricProposal.SignedProposal signedProposal =
+                FabricProposal.SignedProposal.parseFrom(request.getData());
+        FabricProposal.Proposal proposal =
+                FabricProposal.Proposal.parseFrom(signedProposal.getProposalBytes());
+        Common.Header header = Common.Header.parseFrom(proposal.getHeader());
+        Common.SignatureHeader signatureHeader =
+                Common.SignatureHeader.parseFrom(header.getSignatureHeader());
+        Common.ChannelHeader channelHeader =
+                Common.ChannelHeader.parseFrom(header.getChannelHeader());
+
+        EndorserRequest endorserRequest =
+                new EndorserRequest(
+                        signedProposal,
+                        proposal,
+                        signatureHeader.getCreator(),
+                        channelHeader.getTxId());
+        endorserRequest.setType(request.getType());
+        endorserRequest.setResourceInfo(request.getResourceInfo());
+        endorserRequest.setData(request.getData());
+        return endorserRequest;
+    }
+
+    @Override
+    public byte[] getData() {
+        byte[] data = super.getData();
+        if (data == null) {
+            data = signedProposal.toByteArray();
+            super.setData(data);
+        }
+        return data;
+    }
+
+    public FabricProposal.SignedProposal getSignedProposal() {
+        return signedProposal;
+    }
+
+    public FabricProposal.Proposal getProposal() {
+        return proposal;
+    }
+
+    public ByteString getCreator() {
+        return creator;
+    }
+
+    public String getTxID() {
+        return txID;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+}
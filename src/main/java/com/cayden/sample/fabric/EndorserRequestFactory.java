@@ -8,28 +8,14 @@ import org.hyperledger.fabric.protos.common.Common;
 import org.hyperledger.fabric.protos.msp.Identities;
 import org.hyperledger.fabric.protos.peer.Chaincode;
 import org.hyperledger.fabric.protos.peer.FabricProposal;
-import org.hyperledger.fabric.sdk.ChaincodeID;
-import org.hyperledger.fabric.sdk.Channel;
-import org.hyperledger.fabric.sdk.HFClient;
-import org.hyperledger.fabric.sdk.TransactionProposalRequest;
-import org.hyperledger.fabric.sdk.security.CryptoSuite;
-import org.hyperledger.fabric.sdk.transaction.ProposalBuilder;
 
 import java.nio.charset.Charset;
 import java.util.LinkedList;
 import java.util.List;
 
 public class EndorserRequestFactory {
-    public static Request build(TransactionContext<TransactionRequest> request) throws Exception {
-        byte[] signedProposalBytes = encodeWithSignature(request);
-        Request endorserRequest = new Request();
-        endorserRequest.setData(signedProposalBytes);
-        return endorserRequest;
-    }
-
-    public static byte[] encodeWithSignature(TransactionContext<TransactionRequest> request)
+    public static EndorserRequest build(TransactionContext<TransactionRequest> request)
             throws Exception {
-
         if (!request.getAccount().getType().equals(FabricType.Account.FABRIC_ACCOUNT)) {
             throw new Exception(
                     "Illegal account type for fabric call: " + request.getAccount().getType());
@@ -39,8 +25,16 @@ public class EndorserRequestFactory {
         ResourceInfo resourceInfo = request.getResourceInfo();
         TransactionRequest transactionRequest = request.getData();
 
-        // generate proposal
-        FabricProposal.Proposal proposal = buildProposal(account, resourceInfo, transactionRequest);
+        // generate proposal, channel, chaincode and creator parts are cached in the template
+        ProposalTemplate template = ProposalTemplate.get(account, resourceInfo.getProperties());
+        ByteString nonce = ProposalTemplate.newNonce();
+        String txID = template.newTxID(nonce);
+        FabricProposal.Proposal proposal =
+                template.newProposal(
+                        transactionRequest.getMethod(),
+                        getParamterList(transactionRequest),
+                        nonce,
+                        txID);
 
         // sign
         byte[] sign = account.sign(proposal.toByteArray());
@@ -52,49 +46,12 @@ public class EndorserRequestFactory {
                         .setSignature(ByteString.copyFrom(sign))
                         .build();
 
-        return signedProposal.toByteArray();
+        return new EndorserRequest(signedProposal, proposal, account.getSerializedIdentity(), txID);
     }
 
-    private static FabricProposal.Proposal buildProposal(
-            FabricAccount account, ResourceInfo resourceInfo, TransactionRequest transactionRequest)
+    public static byte[] encodeWithSignature(TransactionContext<TransactionRequest> request)
             throws Exception {
-        // Generate transactionProposalRequest
-        TransactionProposalRequest transactionProposalRequest =
-                TransactionProposalRequest.newInstance(account.getUser());
-
-        ResourceInfoProperty properties =
-                ResourceInfoProperty.parseFrom(resourceInfo.getProperties());
-        ChaincodeID chaincodeID =
-                ChaincodeID.newBuilder().setName(properties.getChainCodeName()).build();
-
-        HFClient hfClient = HFClient.createNewInstance();
-        hfClient.setCryptoSuite(CryptoSuite.Factory.getCryptoSuite());
-        hfClient.setUserContext(account.getUser());
-
-        Channel channel = hfClient.newChannel(properties.getChannelName());
-
-        transactionProposalRequest.setChaincodeID(chaincodeID);
-        transactionProposalRequest.setChaincodeLanguage(properties.getChainCodeType());
-        transactionProposalRequest.setFcn(transactionRequest.getMethod());
-        String[] paramterList = getParamterList(transactionRequest);
-        transactionProposalRequest.setArgs(paramterList);
-        transactionProposalRequest.setProposalWaitTime(properties.getProposalWaitTime());
-
-        org.hyperledger.fabric.sdk.TransactionRequest proposalRequest = transactionProposalRequest;
-
-        org.hyperledger.fabric.sdk.transaction.TransactionContext transactionContext =
-                new org.hyperledger.fabric.sdk.transaction.TransactionContext(
-                        channel, account.getUser(), CryptoSuite.Factory.getCryptoSuite());
-
-        transactionContext.verify(proposalRequest.doVerify());
-        transactionContext.setProposalWaitTime(proposalRequest.getProposalWaitTime());
-
-        ProposalBuilder proposalBuilder = ProposalBuilder.newBuilder();
-        proposalBuilder.context(transactionContext);
-        proposalBuilder.request(proposalRequest);
-
-        FabricProposal.Proposal proposal = proposalBuilder.build();
-        return proposal;
+        return build(request).getData();
     }
 
     public static String[] getParamterList(Object[] args) {
@@ -0,0 +1,184 @@
+package com.cayden.sample.fabric;
+
+import org.hyperledger.fabric.sdk.Peer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Latency and error score of every endorser, shared by the chaincodes of one connection. The
+ * score is an EWMA of the response time plus a penalty for recent errors, lower is better. Peers
+ * whose scores are close are treated as equivalent and shuffled so load is spread among them.
+ */
+public class EndorserScoreboard {
+    private static final double LATENCY_ALPHA = 0.2;
+    private static final double ERROR_ALPHA = 0.3;
+    private static final double ERROR_PENALTY = 5000; // ms added at 100% error rate
+    private static final double ERROR_DECAY_TIME = 30000; // ms, errors are forgotten over time
+    private static final double EQUIVALENT_RATIO = 1.2;
+    private static final double EQUIVALENT_MARGIN = 2; // ms
+
+    private Map<Peer, PeerScore> scores = new ConcurrentHashMap<>();
+
+    public void onSuccess(Peer peer, long latency) {
+        getPeerScore(peer).update(latency, false);
+    }
+
+    public void onError(Peer peer, long latency) {
+        getPeerScore(peer).update(latency, true);
+    }
+
+    /**
+     * The peer was cancelled after elapsed ms without answering, its latency is at least that: a
+     * longer elapsed raises the latency like a sample, a shorter one is ignored.
+     */
+    public void onCancel(Peer peer, long elapsed) {
+        getPeerScore(peer).updateLowerBound(elapsed);
+    }
+
+    public double getScore(Peer peer) {
+        PeerScore score = scores.get(peer);
+        return score == null ? 0 : score.getScore(); // unknown peers are probed first
+    }
+
+    /** Best peers first, peers with equivalent scores in random order. */
+    public List<Peer> rank(Collection<Peer> peers) {
+        List<Peer> ranked = new ArrayList<>(peers);
+        if (ranked.size() <= 1) {
+            return ranked;
+        }
+
+        Map<Peer, Double> snapshot = new HashMap<>();
+        for (Peer peer : ranked) {
+            snapshot.put(peer, getScore(peer));
+        }
+        ranked.sort(Comparator.comparingDouble(snapshot::get));
+
+        int bandStart = 0;
+        for (int i = 1; i <= ranked.size(); i++) {
+            if (i == ranked.size()
+                    || snapshot.get(ranked.get(i))
+                            > snapshot.get(ranked.get(bandStart)) * EQUIVALENT_RATIO
+                                    + EQUIVALENT_MARGIN) {
+                if (i - bandStart > 1) {
+                    Collections.shuffle(
+                            ranked.subList(bandStart, i), ThreadLocalRandom.current());
+                }
+                bandStart = i;
+            }
+        }
+        return ranked;
+    }
+
+    /** Scores by peer name, for monitoring why traffic moved between peers. */
+    public Map<String, PeerScore> getScores() {
+        Map<String, PeerScore> result = new TreeMap<>();
+        for (Map.Entry<Peer, PeerScore> entry : scores.entrySet()) {
+            result.put(entry.getKey().getName(), entry.getValue().copy());
+        }
+        return result;
+    }
+
+    private PeerScore getPeerScore(Peer peer) {
+        PeerScore score = scores.get(peer);
+        if (score == null) {
+            scores.putIfAbsent(peer, new PeerScore());
+            score = scores.get(peer);
+        }
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return getScores().toString();
+    }
+
+    public static class PeerScore {
+        private double latency = 0;
+        private double errorRate = 0;
+        private long lastUpdateTime = 0;
+        private long requests = 0;
+        private long errors = 0;
+
+        synchronized void update(long sampleLatency, boolean error) {
+            long now = System.currentTimeMillis();
+            errorRate = decayedErrorRate(now);
+            if (requests == 0) {
+                latency = sampleLatency;
+            } else {
+                latency += LATENCY_ALPHA * (sampleLatency - latency);
+            }
+            errorRate += ERROR_ALPHA * ((error ? 1 : 0) - errorRate);
+            lastUpdateTime = now;
+
+            requests++;
+            if (error) {
+                errors++;
+            }
+        }
+
+        synchronized void updateLowerBound(long elapsed) {
+            if (elapsed <= latency) {
+                return;
+            }
+            if (requests == 0) {
+                latency = elapsed;
+            } else {
+                latency += LATENCY_ALPHA * (elapsed - latency);
+            }
+            requests++;
+        }
+
+        public synchronized double getScore() {
+            return latency + decayedErrorRate(System.currentTimeMillis()) * ERROR_PENALTY;
+        }
+
+        public synchronized double getLatency() {
+            return latency;
+        }
+
+        public synchronized double getErrorRate() {
+            return decayedErrorRate(System.currentTimeMillis());
+        }
+
+        public synchronized long getRequests() {
+            return requests;
+        }
+
+        public synchronized long getErrors() {
+            return errors;
+        }
+
+        synchronized PeerScore copy() {
+            PeerScore copy = new PeerScore();
+            copy.latency = latency;
+            copy.errorRate = errorRate;
+            copy.lastUpdateTime = lastUpdateTime;
+            copy.requests = requests;
+            copy.errors = errors;
+            return copy;
+        }
+
+        private double decayedErrorRate(long now) {
+            if (errorRate == 0) {
+                return 0;
+            }
+            return errorRate * Math.exp(-(now - lastUpdateTime) / ERROR_DECAY_TIME);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "{score: %.1f, latency: %.1f, errorRate: %.3f, requests: %d, errors: %d}",
+                    getScore(), getLatency(), getErrorRate(), getRequests(), getErrors());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.cayden.sample.fabric;
 
 import com.cayden.sample.common.FabricType;
+import com.google.protobuf.ByteString;
 import com.webank.wecross.stub.Connection;
 import com.webank.wecross.stub.Request;
 import com.webank.wecross.stub.ResourceInfo;
@@ -10,12 +11,13 @@ import org.hyperledger.fabric.sdk.Channel;
 import org.hyperledger.fabric.sdk.TransactionInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import static com.cayden.sample.utils.FabricUtils.bytesToLong;
@@ -23,19 +25,28 @@ import static com.cayden.sample.utils.FabricUtils.longToBytes;
 
 public class FabricConnection implements Connection {
     private Logger logger = LoggerFactory.getLogger(FabricConnection.class);
+    private static final long RESPONSE_MARGIN = 5000; // ms
     private Channel channel;
     private Map<String, ChaincodeConnection> chaincodeMap;
     private long latestBlockNumber = 0;
-    private ThreadPoolTaskExecutor threadPool;
     private String blockListenerHandler;
-
-    public FabricConnection(Channel channel, Map<String, ChaincodeConnection> chaincodeMap) {
+    private EndorserScoreboard endorserScoreboard;
+    private CallCoalescer callCoalescer = new CallCoalescer();
+    private CommitTracker commitTracker;
+    private TransactionOutbox outbox; // null if not configured
+    private PipelineStage completionStage = TransactionPipeline.getDefault().getCompletionStage();
+
+    public FabricConnection(
+            Channel channel,
+            Map<String, ChaincodeConnection> chaincodeMap,
+            EndorserScoreboard endorserScoreboard,
+            CommitTracker commitTracker,
+            TransactionOutbox outbox) {
         this.channel = channel;
         this.chaincodeMap = chaincodeMap;
-        this.threadPool = new ThreadPoolTaskExecutor();
-        this.threadPool.setCorePoolSize(200);
-        this.threadPool.setMaxPoolSize(500);
-        this.threadPool.setQueueCapacity(5000);
+        this.endorserScoreboard = endorserScoreboard;
+        this.commitTracker = commitTracker;
+        this.outbox = outbox;
     }
 
     public void start() throws Exception {
@@ -47,11 +58,46 @@ public class FabricConnection implements Connection {
                             if (this.latestBlockNumber < currentBlockNumber) {
                                 this.latestBlockNumber = currentBlockNumber;
                             }
+                            commitTracker.onBlock(blockEvent);
                         });
 
         channel.initialize();
 
-        threadPool.initialize();
+        if (outbox != null) {
+            replayOutbox();
+        }
+    }
+
+    /** Broadcast the envelopes a previous run left in the outbox, in the background. */
+    private void replayOutbox() {
+        for (TransactionOutbox.Entry entry : outbox.getRecovered()) {
+            ChaincodeConnection chaincodeConnection = chaincodeMap.get(entry.getResource());
+            if (chaincodeConnection == null) {
+                logger.warn(
+                        "Drop outbox transaction {}, resource {} not found",
+                        entry.getTxID(),
+                        entry.getResource());
+                outbox.markDone(entry.getTxID());
+                continue;
+            }
+
+            chaincodeConnection
+                    .replay(entry.getEnvelope(), entry.getTxID())
+                    .whenComplete(
+                            (transactionEvent, throwable) -> {
+                                if (throwable != null) {
+                                    logger.warn(
+                                            "Replay outbox transaction {} exception: {}",
+                                            entry.getTxID(),
+                                            throwable);
+                                } else {
+                                    logger.info(
+                                            "Replayed outbox transaction {}, valid: {}",
+                                            entry.getTxID(),
+                                            transactionEvent.isValid());
+                                }
+                            });
+        }
     }
 
     @Override
@@ -64,8 +110,12 @@ public class FabricConnection implements Connection {
                 return handleSendTransactionEndorser(request);
 
             case FabricType.ConnectionMessage.FABRIC_SENDTRANSACTION_ORDERER:
+            case FabricType.ConnectionMessage.FABRIC_SUBMIT_TRANSACTION_ORDERER:
                 return handleSendTransactionOrderer(request);
 
+            case FabricType.ConnectionMessage.FABRIC_WAIT_TRANSACTION_COMMIT:
+                return handleWaitTransactionCommit(request);
+
             case FabricType.ConnectionMessage.FABRIC_GET_BLOCK_NUMBER:
                 return handleGetBlockNumber(request);
 
@@ -85,6 +135,7 @@ public class FabricConnection implements Connection {
 
     @Override
     public void asyncSend(Request request, Connection.Callback callback) {
+        callback = onCompletionStage(callback);
         switch (request.getType()) {
             case FabricType.ConnectionMessage.FABRIC_CALL:
                 handleAsyncCall(request, callback);
@@ -95,14 +146,68 @@ public class FabricConnection implements Connection {
                 break;
 
             case FabricType.ConnectionMessage.FABRIC_SENDTRANSACTION_ORDERER:
+            case FabricType.ConnectionMessage.FABRIC_SUBMIT_TRANSACTION_ORDERER:
                 handleAsyncSendTransactionOrderer(request, callback);
                 break;
 
+            case FabricType.ConnectionMessage.FABRIC_WAIT_TRANSACTION_COMMIT:
+                handleAsyncWaitTransactionCommit(request, callback);
+                break;
+
             default:
                 callback.onResponse(send(request));
         }
     }
 
+    /**
+     * Responses mostly arrive on SDK event, gRPC or timer threads, the callback chain (driver
+     * verification, block fetch, user callback) runs on the completion stage instead. A full stage
+     * runs it in place: the response can't be dropped, and the event thread slows down.
+     */
+    private Connection.Callback onCompletionStage(Connection.Callback callback) {
+        return response -> {
+            try {
+                completionStage.execute(() -> callback.onResponse(response));
+            } catch (RejectedExecutionException e) {
+                logger.warn("{}, callback runs on the calling thread", e.getMessage());
+                callback.onResponse(response);
+            }
+        };
+    }
+
+    /**
+     * Broadcast already endorsed and signed envelopes (serialized Common.Envelope) of a resource,
+     * at most maxInFlight of them waiting for commit at once. The callback gets the commit
+     * response of each envelope as it commits, then onFinished(). A Stream is passed with
+     * stream.iterator(), it is consumed as envelopes commit.
+     */
+    public void asyncSubmitEnvelopes(
+            String resourceName,
+            Iterator<byte[]> envelopes,
+            int maxInFlight,
+            BulkSubmission.Callback callback) {
+        ChaincodeConnection chaincodeConnection = chaincodeMap.get(resourceName);
+        if (chaincodeConnection == null) {
+            callback.onResponse(
+                    0,
+                    null,
+                    FabricConnectionResponse.build()
+                            .errorCode(FabricType.TransactionResponseStatus.RESOURCE_NOT_FOUND)
+                            .errorMessage("Resource not found, name: " + resourceName));
+            callback.onFinished(0, 0);
+            return;
+        }
+
+        new BulkSubmission(chaincodeConnection, envelopes, maxInFlight, completionStage, callback)
+                .start();
+    }
+
+    public void asyncSubmitEnvelopes(
+            String resourceName, Iterator<byte[]> envelopes, BulkSubmission.Callback callback) {
+        asyncSubmitEnvelopes(
+                resourceName, envelopes, BulkSubmission.DEFAULT_MAX_IN_FLIGHT, callback);
+    }
+
     @Override
     public List<ResourceInfo> getResources() {
         List<ResourceInfo> resourceInfoList = new LinkedList<>();
@@ -127,14 +232,57 @@ public class FabricConnection implements Connection {
     }
 
     private void handleAsyncCall(Request request, Connection.Callback callback) {
-        // chaincode call is sync, use thread pool to simulate async for better performance
-        threadPool.execute(
-                new Runnable() {
+        ByteString key = null;
+        try {
+            // parsed once here, the chaincode connection reuses it
+            request = EndorserRequest.from(request);
+            key = CallCoalescer.keyOf((EndorserRequest) request);
+        } catch (Exception e) {
+            logger.debug("Could not coalesce call: ", e); // let the endorser reject it
+        }
+
+        if (key != null && !callCoalescer.join(key, callback)) {
+            return; // an identical query is in flight, share its result
+        }
+
+        ChaincodeConnection chaincodeConnection =
+                chaincodeMap.get(request.getResourceInfo().getName());
+        if (chaincodeConnection == null) {
+            Response response =
+                    FabricConnectionResponse.build()
+                            .errorCode(FabricType.TransactionResponseStatus.RESOURCE_NOT_FOUND)
+                            .errorMessage(
+                                    "Resource not found, name: "
+                                            + request.getResourceInfo().getName());
+            if (key != null) {
+                callCoalescer.complete(key, response);
+            } else {
+                callback.onResponse(response);
+            }
+            return;
+        }
+
+        final ByteString coalesceKey = key;
+        Callback callCallback =
+                new Callback() {
                     @Override
-                    public void run() {
-                        callback.onResponse(handleCall(request));
+                    public void onResponse(Response response) {
+                        if (coalesceKey != null) {
+                            callCoalescer.complete(coalesceKey, response);
+                        } else {
+                            callback.onResponse(response);
+                        }
                     }
-                });
+                };
+        try {
+            chaincodeConnection.asyncCall(request, callCallback);
+        } catch (Exception e) {
+            // the joined callers wait for the key, they must be answered too
+            callCallback.onResponse(
+                    FabricConnectionResponse.build()
+                            .errorCode(FabricType.TransactionResponseStatus.INTERNAL_ERROR)
+                            .errorMessage("Call exception: " + e));
+        }
     }
 
     private Response handleSendTransactionEndorser(Request request) {
@@ -151,14 +299,18 @@ public class FabricConnection implements Connection {
     }
 
     private void handleAsyncSendTransactionEndorser(Request request, Connection.Callback callback) {
-        // chaincode call is sync, use thread pool to simulate async for better performance
-        threadPool.execute(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        callback.onResponse(handleSendTransactionEndorser(request));
-                    }
-                });
+        ChaincodeConnection chaincodeConnection =
+                chaincodeMap.get(request.getResourceInfo().getName());
+        if (chaincodeConnection != null) {
+            chaincodeConnection.asyncSendTransactionEndorser(request, callback);
+        } else {
+            callback.onResponse(
+                    FabricConnectionResponse.build()
+                            .errorCode(FabricType.TransactionResponseStatus.RESOURCE_NOT_FOUND)
+                            .errorMessage(
+                                    "Resource not found, name: "
+                                            + request.getResourceInfo().getName()));
+        }
     }
 
     private Response handleSendTransactionOrderer(Request request) {
@@ -174,12 +326,36 @@ public class FabricConnection implements Connection {
                 });
 
         try {
-            return responseFuture.get(5000, TimeUnit.MILLISECONDS);
+            // The chaincode connection always answers by the commit deadline
+            return responseFuture.get(responseTimeout(request), TimeUnit.MILLISECONDS);
         } catch (Exception e) {
             return FabricConnectionResponse.build()
                     .errorCode(FabricType.TransactionResponseStatus.INTERNAL_ERROR)
-                    .errorMessage("handleSendTransactionOrderer exception: " + e.getMessage());
+                    .errorMessage("handleSendTransactionOrderer exception: " + e);
+        }
+    }
+
+    /**
+     * How long a sync request waits for the chaincode connection: until the commit deadline of the
+     * request, or a transaction timeout of the resource, plus RESPONSE_MARGIN. A response missing
+     * by then is a bug, and the caller thread is not held forever for it.
+     */
+    private long responseTimeout(Request request) {
+        long commitDeadline = 0;
+        if (request instanceof OrdererRequest) {
+            commitDeadline = ((OrdererRequest) request).getCommitDeadline();
         }
+        if (commitDeadline != 0) {
+            return TransactionDeadline.remaining(commitDeadline) + RESPONSE_MARGIN;
+        }
+
+        ChaincodeConnection chaincodeConnection =
+                chaincodeMap.get(request.getResourceInfo().getName());
+        long timeout =
+                chaincodeConnection != null
+                        ? chaincodeConnection.getTransactionTimeout()
+                        : TransactionDeadline.DEFAULT_TIMEOUT;
+        return timeout + RESPONSE_MARGIN;
     }
 
     private void handleAsyncSendTransactionOrderer(Request request, Connection.Callback callback) {
@@ -205,6 +381,51 @@ public class FabricConnection implements Connection {
         }
     }
 
+    private Response handleWaitTransactionCommit(Request request) {
+        CompletableFuture<Response> responseFuture = new CompletableFuture<>();
+
+        handleAsyncWaitTransactionCommit(
+                request,
+                new Callback() {
+                    @Override
+                    public void onResponse(Response response) {
+                        responseFuture.complete(response);
+                    }
+                });
+
+        try {
+            // The commit wait ends by the deadline it was tracked with
+            return responseFuture.get(responseTimeout(request), TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            return FabricConnectionResponse.build()
+                    .errorCode(FabricType.TransactionResponseStatus.INTERNAL_ERROR)
+                    .errorMessage("handleWaitTransactionCommit exception: " + e);
+        }
+    }
+
+    private void handleAsyncWaitTransactionCommit(Request request, Connection.Callback callback) {
+        ChaincodeConnection chaincodeConnection =
+                chaincodeMap.get(request.getResourceInfo().getName());
+        if (chaincodeConnection != null) {
+            chaincodeConnection.asyncWaitTransactionCommit(
+                    request,
+                    new SendTransactionOrdererCallback() {
+                        @Override
+                        public void onResponse(Response response) {
+                            callback.onResponse(response);
+                        }
+                    });
+
+        } else {
+            callback.onResponse(
+                    FabricConnectionResponse.build()
+                            .errorCode(FabricType.TransactionResponseStatus.RESOURCE_NOT_FOUND)
+                            .errorMessage(
+                                    "Resource not found, name: "
+                                            + request.getResourceInfo().getName()));
+        }
+    }
+
     private Response handleGetBlockNumber(Request request) {
         byte[] numberBytes = longToBytes(latestBlockNumber);
 
@@ -263,6 +484,14 @@ public class FabricConnection implements Connection {
         return this.channel;
     }
 
+    public EndorserScoreboard getEndorserScoreboard() {
+        return endorserScoreboard;
+    }
+
+    public CommitTracker getCommitTracker() {
+        return commitTracker;
+    }
+
     public Map<String, ChaincodeConnection> getChaincodeMap() {
         return chaincodeMap;
     }
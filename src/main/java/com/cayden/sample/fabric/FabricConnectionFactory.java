@@ -22,10 +22,26 @@ public class FabricConnectionFactory {
             HFClient hfClient = buildClient(configFile);
             Map<String, Peer> peersMap = buildPeersMap(hfClient, configFile);
             Channel channel = buildChannel(hfClient, peersMap, configFile);
+            EndorserScoreboard endorserScoreboard = new EndorserScoreboard();
+            OrdererBroadcaster ordererBroadcaster =
+                    new OrdererBroadcaster(new FabricInnerFunction(channel));
+            CommitTracker commitTracker = new CommitTracker();
+            String outboxPath = configFile.getCommon().getOutbox();
+            TransactionOutbox outbox =
+                    outboxPath == null ? null : new TransactionOutbox(outboxPath);
             Map<String, ChaincodeConnection> fabricChaincodeMap =
-                    buildFabricChaincodeMap(hfClient, peersMap, channel, configFile);
-
-            return new FabricConnection(channel, fabricChaincodeMap);
+                    buildFabricChaincodeMap(
+                            hfClient,
+                            peersMap,
+                            channel,
+                            configFile,
+                            endorserScoreboard,
+                            ordererBroadcaster,
+                            commitTracker,
+                            outbox);
+
+            return new FabricConnection(
+                    channel, fabricChaincodeMap, endorserScoreboard, commitTracker, outbox);
 
         } catch (Exception e) {
             Logger logger = LoggerFactory.getLogger(FabricConnectionFactory.class);
@@ -69,13 +85,19 @@ public class FabricConnectionFactory {
             Map<String, Peer> peersMap,
             FabricStubConfigParser fabricStubConfigParser)
             throws InvalidArgumentException, TransactionException {
-        Orderer orderer1 = buildOrderer(client, fabricStubConfigParser);
         Channel channel =
                 client.newChannel(fabricStubConfigParser.getFabricServices().getChannelName());
-        channel.addOrderer(orderer1);
+        for (Map.Entry<String, FabricStubConfigParser.Orderers.Orderer> ordererInfo :
+                fabricStubConfigParser.getOrderers().entrySet()) {
+            channel.addOrderer(buildOrderer(client, ordererInfo.getKey(), ordererInfo.getValue()));
+        }
 
+        // Filtered blocks carry the txID and validation code of each transaction, enough for the
+        // block number and commit tracking
         for (Peer peer : peersMap.values()) {
-            channel.addPeer(peer);
+            channel.addPeer(
+                    peer,
+                    Channel.PeerOptions.createPeerOptions().registerEventsForFilteredBlocks());
         }
 
         // channel.initialize(); not to start channel here
@@ -86,7 +108,11 @@ public class FabricConnectionFactory {
             HFClient client,
             Map<String, Peer> peersMap,
             Channel channel,
-            FabricStubConfigParser fabricStubConfigParser)
+            FabricStubConfigParser fabricStubConfigParser,
+            EndorserScoreboard endorserScoreboard,
+            OrdererBroadcaster ordererBroadcaster,
+            CommitTracker commitTracker,
+            TransactionOutbox outbox)
             throws Exception {
         Map<String, ChaincodeConnection> fabricChaincodeMap = new HashMap<>();
 
@@ -96,18 +122,25 @@ public class FabricConnectionFactory {
         for (FabricStubConfigParser.Resources.Resource resourceObj : resourceList) {
             String name = resourceObj.getName();
             ChaincodeConnection chaincodeConnection =
-                    new ChaincodeConnection(client, peersMap, channel, resourceObj);
+                    new ChaincodeConnection(
+                            client,
+                            peersMap,
+                            channel,
+                            resourceObj,
+                            endorserScoreboard,
+                            ordererBroadcaster,
+                            commitTracker,
+                            outbox);
             fabricChaincodeMap.put(name, chaincodeConnection);
         }
         return fabricChaincodeMap;
     }
 
     public static Orderer buildOrderer(
-            HFClient client, FabricStubConfigParser fabricStubConfigParser)
+            HFClient client, String name, FabricStubConfigParser.Orderers.Orderer ordererConfig)
             throws InvalidArgumentException {
         Properties orderer1Prop = new Properties();
-        orderer1Prop.setProperty(
-                "pemFile", fabricStubConfigParser.getFabricServices().getOrdererTlsCaFile());
+        orderer1Prop.setProperty("pemFile", ordererConfig.getOrdererTlsCaFile());
         orderer1Prop.setProperty("sslProvider", "openSSL");
         orderer1Prop.setProperty("negotiationType", "TLS");
         orderer1Prop.setProperty("ordererWaitTimeMilliSecs", "300000");
@@ -115,10 +148,7 @@ public class FabricConnectionFactory {
         orderer1Prop.setProperty("trustServerCertificate", "true");
         orderer1Prop.setProperty("allowAllHostNames", "true");
         Orderer orderer =
-                client.newOrderer(
-                        "orderer",
-                        fabricStubConfigParser.getFabricServices().getOrdererAddress(),
-                        orderer1Prop);
+                client.newOrderer(name, ordererConfig.getOrdererAddress(), orderer1Prop);
         return orderer;
     }
 
@@ -132,6 +162,9 @@ public class FabricConnectionFactory {
         peer0Prop.setProperty("hostnameOverride", "peer0");
         peer0Prop.setProperty("trustServerCertificate", "true");
         peer0Prop.setProperty("allowAllHostNames", "true");
+        if (peerConfig.getMspId() != null) {
+            peer0Prop.setProperty(EndorserPlanner.PEER_MSPID_PROPERTY, peerConfig.getMspId());
+        }
         Peer peer = client.newPeer("peer" + index, peerConfig.getPeerAddress(), peer0Prop);
         return peer;
     }
@@ -3,12 +3,18 @@ package com.cayden.sample.fabric;
 import com.google.protobuf.ByteString;
 import com.cayden.sample.common.FabricType;
 import com.webank.wecross.stub.*;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import static com.cayden.sample.utils.FabricUtils.bytesToLong;
@@ -17,6 +23,13 @@ import static com.cayden.sample.utils.FabricUtils.longToBytes;
 public class FabricDriver implements Driver {
     private Logger logger = LoggerFactory.getLogger(FabricDriver.class);
 
+    private static final Timer retryHandler = new HashedWheelTimer();
+
+    private TransactionPipeline pipeline = TransactionPipeline.getDefault();
+    private Map<String, MvccRetryPolicy> mvccRetryPolicies = new ConcurrentHashMap<>();
+    private Map<String, WriteCoalescer> writeCoalescers = new ConcurrentHashMap<>();
+    private SubmissionDedupWindow submissionDedupWindow = new SubmissionDedupWindow();
+
     public byte[] encodeTransactionRequest(TransactionContext<TransactionRequest> request) {
         try {
             return EndorserRequestFactory.encode(request);
@@ -85,10 +98,12 @@ public class FabricDriver implements Driver {
         }
     }
 
+    /** Blocks until the response, so it must not be called from a callback, use asyncCall. */
     @Override
     public TransactionResponse call(
             TransactionContext<TransactionRequest> request, Connection connection)
             throws TransactionException {
+        checkNotOnCompletionStage("call", "asyncCall");
         TransactionResponse response = new TransactionResponse();
 
         CompletableFuture<TransactionResponse> future = new CompletableFuture<>();
@@ -129,14 +144,23 @@ public class FabricDriver implements Driver {
             TransactionContext<TransactionRequest> request,
             Connection connection,
             Driver.Callback callback) {
+        asyncCall(request, connection, newDeadline(request), callback);
+    }
+
+    public void asyncCall(
+            TransactionContext<TransactionRequest> request,
+            Connection connection,
+            TransactionDeadline deadline,
+            Driver.Callback callback) {
 
         try {
             // check
             checkRequest(request);
 
-            Request endorserRequest = EndorserRequestFactory.build(request);
+            EndorserRequest endorserRequest = EndorserRequestFactory.build(request);
             endorserRequest.setType(FabricType.ConnectionMessage.FABRIC_CALL);
             endorserRequest.setResourceInfo(request.getResourceInfo());
+            endorserRequest.setDeadline(deadline.getDeadline());
 
             connection.asyncSend(
                     endorserRequest,
@@ -150,9 +174,7 @@ public class FabricDriver implements Driver {
                                         == FabricType.TransactionResponseStatus.SUCCESS) {
                                     response =
                                             decodeTransactionResponse(connectionResponse.getData());
-                                    response.setHash(
-                                            EndorserRequestFactory.getTxIDFromEnvelopeBytes(
-                                                    endorserRequest.getData()));
+                                    response.setHash(endorserRequest.getTxID());
                                 }
                                 transactionException =
                                         new TransactionException(
@@ -180,19 +202,34 @@ public class FabricDriver implements Driver {
         }
     }
 
+    /**
+     * Blocks until the transaction is committed, so it must not be called from a callback, use
+     * asyncSendTransaction.
+     */
     @Override
     public TransactionResponse sendTransaction(
             TransactionContext<TransactionRequest> request, Connection connection)
             throws TransactionException {
+        return sendTransactionOnce(request, connection, null);
+    }
+
+    /** Like sendTransaction, but sent at most once per requestID, see asyncSendTransactionOnce. */
+    public TransactionResponse sendTransactionOnce(
+            TransactionContext<TransactionRequest> request,
+            Connection connection,
+            String requestID)
+            throws TransactionException {
+        checkNotOnCompletionStage("sendTransaction", "asyncSendTransaction");
 
         TransactionResponse response = new TransactionResponse();
 
         CompletableFuture<TransactionResponse> future = new CompletableFuture<>();
         CompletableFuture<TransactionException> exceptionFuture = new CompletableFuture<>();
 
-        asyncSendTransaction(
+        asyncSendTransactionOnce(
                 request,
                 connection,
+                requestID,
                 new Driver.Callback() {
                     @Override
                     public void onTransactionResponse(
@@ -230,26 +267,201 @@ public class FabricDriver implements Driver {
             TransactionContext<TransactionRequest> request,
             Connection connection,
             Driver.Callback callback) {
+        WriteCoalescer writeCoalescer = getWriteCoalescer(request);
+        if (writeCoalescer != null && writeCoalescer.accepts(request)) {
+            writeCoalescer.send(request, connection, callback);
+            return;
+        }
+
+        asyncSendTransaction(request, connection, newDeadline(request), callback);
+    }
+
+    /**
+     * Like asyncSendTransaction, but a retry carrying the requestID of a transaction still in
+     * flight, or committed within the dedup window, gets the outcome of that transaction instead
+     * of sending a new one. requestID is chosen by the caller and unique per account and resource,
+     * null sends the transaction as usual.
+     */
+    public void asyncSendTransactionOnce(
+            TransactionContext<TransactionRequest> request,
+            Connection connection,
+            String requestID,
+            Driver.Callback callback) {
+        if (requestID == null
+                || request.getAccount() == null
+                || request.getResourceInfo() == null) {
+            asyncSendTransaction(request, connection, callback);
+            return;
+        }
+
+        String key =
+                request.getResourceInfo().getName()
+                        + ":"
+                        + request.getAccount().getIdentity()
+                        + ":"
+                        + requestID;
+        SubmissionDedupWindow.Resolver resolver =
+                (txID, resolveCallback) ->
+                        asyncResolveTransaction(request, connection, txID, resolveCallback);
+        if (!submissionDedupWindow.join(key, callback, resolver)) {
+            return;
+        }
+
+        asyncSendTransaction(
+                request,
+                connection,
+                (transactionException, transactionResponse) ->
+                        submissionDedupWindow.complete(
+                                key, transactionException, transactionResponse));
+    }
+
+    /**
+     * Send a transaction which must be endorsed, ordered and committed before the deadline. If the
+     * resource has mvccRetries, a transaction failing with a read conflict is sent again.
+     */
+    public void asyncSendTransaction(
+            TransactionContext<TransactionRequest> request,
+            Connection connection,
+            TransactionDeadline deadline,
+            Driver.Callback callback) {
+        MvccRetryPolicy mvccRetryPolicy = getMvccRetryPolicy(request);
+        if (mvccRetryPolicy == null) {
+            asyncSendTransaction(request, connection, deadline, null, callback);
+            return;
+        }
+
+        mvccRetryPolicy.onTransaction();
+        asyncSendTransactionWithRetry(request, connection, deadline, mvccRetryPolicy, 0, callback);
+    }
+
+    private void asyncSendTransactionWithRetry(
+            TransactionContext<TransactionRequest> request,
+            Connection connection,
+            TransactionDeadline deadline,
+            MvccRetryPolicy mvccRetryPolicy,
+            int attempt,
+            Driver.Callback callback) {
+        asyncSendTransaction(
+                request,
+                connection,
+                deadline,
+                null,
+                new Driver.Callback() {
+                    @Override
+                    public void onTransactionResponse(
+                            TransactionException transactionException,
+                            TransactionResponse transactionResponse) {
+                        if (isMvccConflict(transactionException, transactionResponse)) {
+                            long backoff = mvccRetryPolicy.nextBackoff(attempt);
+                            if (TransactionDeadline.remaining(deadline.getDeadline()) > backoff
+                                    && mvccRetryPolicy.tryRetry(attempt)) {
+                                logger.debug(
+                                        "Read conflict on {}, retry {} in {} ms",
+                                        request.getResourceInfo().getName(),
+                                        attempt + 1,
+                                        backoff);
+                                // The phases are split again over the time which is left
+                                retryHandler.newTimeout(
+                                        timeout ->
+                                                asyncSendTransactionWithRetry(
+                                                        request,
+                                                        connection,
+                                                        TransactionDeadline.at(
+                                                                deadline.getDeadline()),
+                                                        mvccRetryPolicy,
+                                                        attempt + 1,
+                                                        callback),
+                                        backoff,
+                                        TimeUnit.MILLISECONDS);
+                                return;
+                            }
+                        }
+
+                        if (attempt > 0) {
+                            String message = transactionResponse.getErrorMessage();
+                            transactionResponse.setErrorMessage(
+                                    (message == null ? "" : message + ", ")
+                                            + "MVCC retries: "
+                                            + attempt);
+                        }
+                        callback.onTransactionResponse(transactionException, transactionResponse);
+                    }
+                });
+    }
+
+    private static boolean isMvccConflict(
+            TransactionException transactionException, TransactionResponse transactionResponse) {
+        // A failed validation carries the TxValidationCode as response error code
+        return transactionException != null
+                && transactionException.getErrorCode() != null
+                && transactionException.getErrorCode()
+                        == FabricType.TransactionResponseStatus.FABRIC_EXECUTE_CHAINCODE_FAILED
+                && transactionResponse != null
+                && transactionResponse.getErrorCode() != null
+                && MvccRetryPolicy.isConflict(transactionResponse.getErrorCode());
+    }
+
+    /**
+     * Like asyncSendTransaction, but submitCallback is answered with the txID as hash as soon as
+     * the orderer accepted the transaction, and callback once it is committed and verified. A
+     * transaction which fails before it is accepted answers both callbacks.
+     */
+    public void asyncSubmitTransaction(
+            TransactionContext<TransactionRequest> request,
+            Connection connection,
+            TransactionDeadline deadline,
+            Driver.Callback submitCallback,
+            Driver.Callback callback) {
+        asyncSendTransaction(request, connection, deadline, submitCallback, callback);
+    }
+
+    private void asyncSendTransaction(
+            TransactionContext<TransactionRequest> request,
+            Connection connection,
+            TransactionDeadline deadline,
+            Driver.Callback submitCallback,
+            Driver.Callback callback) {
+        execute(
+                pipeline.getProposalStage(),
+                () ->
+                        asyncSendTransactionEndorse(
+                                request, connection, deadline, submitCallback, callback),
+                failureCallback(submitCallback, callback));
+    }
+
+    private void asyncSendTransactionEndorse(
+            TransactionContext<TransactionRequest> request,
+            Connection connection,
+            TransactionDeadline deadline,
+            Driver.Callback submitCallback,
+            Driver.Callback callback) {
         try {
             // check
             checkRequest(request);
 
             // Send to endorser
-            Request endorserRequest = EndorserRequestFactory.build(request);
+            EndorserRequest endorserRequest = EndorserRequestFactory.build(request);
             endorserRequest.setType(FabricType.ConnectionMessage.FABRIC_SENDTRANSACTION_ENDORSER);
             endorserRequest.setResourceInfo(request.getResourceInfo());
+            endorserRequest.setDeadline(deadline.getEndorseDeadline());
 
             connection.asyncSend(
                     endorserRequest,
                     new Connection.Callback() {
                         @Override
                         public void onResponse(Response endorserResponse) {
-                            asyncSendTransactionHandleEndorserResponse(
-                                    request,
-                                    endorserRequest,
-                                    endorserResponse,
-                                    connection,
-                                    callback);
+                            execute(
+                                    pipeline.getEnvelopeStage(),
+                                    () ->
+                                            asyncSendTransactionHandleEndorserResponse(
+                                                    request,
+                                                    endorserRequest,
+                                                    deadline,
+                                                    endorserResponse,
+                                                    connection,
+                                                    submitCallback,
+                                                    callback),
+                                    failureCallback(submitCallback, callback));
                         }
                     });
 
@@ -259,43 +471,76 @@ public class FabricDriver implements Driver {
             TransactionResponse response = new TransactionResponse();
             TransactionException transactionException =
                     TransactionException.Builder.newInternalException(errorMessage);
-            callback.onTransactionResponse(transactionException, response);
+            failureCallback(submitCallback, callback)
+                    .onTransactionResponse(transactionException, response);
         }
     }
 
     private void asyncSendTransactionHandleEndorserResponse(
             TransactionContext<TransactionRequest> request,
-            Request endorserRequest,
+            EndorserRequest endorserRequest,
+            TransactionDeadline deadline,
             Response endorserResponse,
             Connection connection,
+            Driver.Callback submitCallback,
             Driver.Callback callback) {
+        Driver.Callback failureCallback = failureCallback(submitCallback, callback);
+        if (endorserResponse.getErrorCode() == FabricType.TransactionResponseStatus.SUCCESS
+                && TransactionDeadline.isExpired(deadline.getOrderDeadline())) {
+            TransactionException transactionException =
+                    new TransactionException(
+                            FabricType.TransactionResponseStatus.DEADLINE_EXCEEDED,
+                            "Deadline exceeded after endorsement, not sent to orderer");
+            failureCallback.onTransactionResponse(transactionException, new TransactionResponse());
+            return;
+        }
+
         if (endorserResponse.getErrorCode() != FabricType.TransactionResponseStatus.SUCCESS) {
             TransactionResponse response = new TransactionResponse();
             TransactionException transactionException =
                     new TransactionException(
                             endorserResponse.getErrorCode(), endorserResponse.getErrorMessage());
-            callback.onTransactionResponse(transactionException, response);
+            failureCallback.onTransactionResponse(transactionException, response);
             return;
         } else {
             // Send to orderer
             try {
                 byte[] ordererPayloadToSign = endorserResponse.getData();
-                Request ordererRequest =
-                        OrdererRequestFactory.build(request.getAccount(), ordererPayloadToSign);
-                ordererRequest.setType(FabricType.ConnectionMessage.FABRIC_SENDTRANSACTION_ORDERER);
+                OrdererRequest ordererRequest =
+                        OrdererRequestFactory.build(
+                                request.getAccount(),
+                                endorserRequest.getTxID(),
+                                ordererPayloadToSign);
+                ordererRequest.setType(
+                        submitCallback == null
+                                ? FabricType.ConnectionMessage.FABRIC_SENDTRANSACTION_ORDERER
+                                : FabricType.ConnectionMessage.FABRIC_SUBMIT_TRANSACTION_ORDERER);
                 ordererRequest.setResourceInfo(request.getResourceInfo());
+                ordererRequest.setOrderDeadline(deadline.getOrderDeadline());
+                ordererRequest.setCommitDeadline(deadline.getDeadline());
 
                 connection.asyncSend(
                         ordererRequest,
                         new Connection.Callback() {
                             @Override
                             public void onResponse(Response ordererResponse) {
-                                asyncSendTransactionHandleOrdererResponse(
-                                        request,
-                                        endorserRequest,
-                                        ordererPayloadToSign,
-                                        ordererResponse,
-                                        callback);
+                                if (submitCallback == null) {
+                                    asyncSendTransactionHandleOrdererResponse(
+                                            request,
+                                            endorserRequest,
+                                            ordererPayloadToSign,
+                                            ordererResponse,
+                                            callback);
+                                } else {
+                                    asyncSubmitTransactionHandleSubmitResponse(
+                                            request,
+                                            endorserRequest,
+                                            ordererPayloadToSign,
+                                            ordererResponse,
+                                            connection,
+                                            submitCallback,
+                                            callback);
+                                }
                             }
                         });
 
@@ -305,22 +550,108 @@ public class FabricDriver implements Driver {
                 TransactionResponse response = new TransactionResponse();
                 TransactionException transactionException =
                         TransactionException.Builder.newInternalException(errorMessage);
-                callback.onTransactionResponse(transactionException, response);
+                failureCallback.onTransactionResponse(transactionException, response);
             }
         }
     }
 
+    private void asyncSubmitTransactionHandleSubmitResponse(
+            TransactionContext<TransactionRequest> request,
+            EndorserRequest endorserRequest,
+            byte[] ordererPayloadToSign,
+            Response submitResponse,
+            Connection connection,
+            Driver.Callback submitCallback,
+            Driver.Callback callback) {
+        if (submitResponse.getErrorCode() != FabricType.TransactionResponseStatus.SUCCESS) {
+            TransactionException transactionException =
+                    new TransactionException(
+                            submitResponse.getErrorCode(), submitResponse.getErrorMessage());
+            failureCallback(submitCallback, callback)
+                    .onTransactionResponse(transactionException, new TransactionResponse());
+            return;
+        }
+
+        String txID = endorserRequest.getTxID();
+        TransactionResponse response = new TransactionResponse();
+        response.setHash(txID);
+        response.setErrorCode(FabricType.TransactionResponseStatus.SUCCESS);
+        response.setErrorMessage("Submitted");
+        submitCallback.onTransactionResponse(
+                TransactionException.Builder.newSuccessException(), response);
+
+        // The commit is answered like a sendTransaction orderer response
+        Request waitRequest = new Request();
+        waitRequest.setType(FabricType.ConnectionMessage.FABRIC_WAIT_TRANSACTION_COMMIT);
+        waitRequest.setData(txID.getBytes(StandardCharsets.UTF_8));
+        waitRequest.setResourceInfo(request.getResourceInfo());
+        connection.asyncSend(
+                waitRequest,
+                new Connection.Callback() {
+                    @Override
+                    public void onResponse(Response commitResponse) {
+                        asyncSendTransactionHandleOrdererResponse(
+                                request,
+                                endorserRequest,
+                                ordererPayloadToSign,
+                                commitResponse,
+                                callback);
+                    }
+                });
+    }
+
+    /**
+     * Callbacks run on the completion stage. A sync call made from one would wait there for a
+     * response which needs a completion thread itself, with every thread waiting like this the
+     * stage deadlocks. Such a call fails at once instead.
+     */
+    private void checkNotOnCompletionStage(String method, String asyncMethod)
+            throws TransactionException {
+        if (pipeline.getCompletionStage().isCurrentThread()) {
+            throw TransactionException.Builder.newInternalException(
+                    method + "() called from a transaction callback, use " + asyncMethod + "()");
+        }
+    }
+
+    /** Run a step on its pipeline stage, a full stage fails the transaction. */
+    private void execute(PipelineStage stage, Runnable step, Driver.Callback failureCallback) {
+        try {
+            stage.execute(step);
+        } catch (RejectedExecutionException e) {
+            logger.warn(e.getMessage());
+            failureCallback.onTransactionResponse(
+                    TransactionException.Builder.newInternalException(e.getMessage()),
+                    new TransactionResponse());
+        }
+    }
+
+    private static Driver.Callback failureCallback(
+            Driver.Callback submitCallback, Driver.Callback callback) {
+        if (submitCallback == null) {
+            return callback;
+        }
+
+        return new Driver.Callback() {
+            @Override
+            public void onTransactionResponse(
+                    TransactionException transactionException,
+                    TransactionResponse transactionResponse) {
+                submitCallback.onTransactionResponse(transactionException, transactionResponse);
+                callback.onTransactionResponse(transactionException, transactionResponse);
+            }
+        };
+    }
+
     private void asyncSendTransactionHandleOrdererResponse(
             TransactionContext<TransactionRequest> request,
-            Request endorserRequest,
+            EndorserRequest endorserRequest,
             byte[] ordererPayloadToSign,
             Response ordererResponse,
             Driver.Callback callback) {
         try {
             if (ordererResponse.getErrorCode() == FabricType.TransactionResponseStatus.SUCCESS) {
                 // Success, verify transaction
-                String txID =
-                        EndorserRequestFactory.getTxIDFromEnvelopeBytes(endorserRequest.getData());
+                String txID = endorserRequest.getTxID();
                 long txBlockNumber = bytesToLong(ordererResponse.getData());
 
                 asyncVerifyTransactionOnChain(
@@ -386,6 +717,10 @@ public class FabricDriver implements Driver {
                 callback.onTransactionResponse(transactionException, response);
             } else {
                 TransactionResponse response = new TransactionResponse();
+                if (ordererResponse.getErrorCode()
+                        == FabricType.TransactionResponseStatus.FABRIC_COMMIT_UNKNOWN) {
+                    response.setHash(endorserRequest.getTxID()); // may still commit
+                }
                 TransactionException transactionException =
                         new TransactionException(
                                 ordererResponse.getErrorCode(), ordererResponse.getErrorMessage());
@@ -403,6 +738,105 @@ public class FabricDriver implements Driver {
         }
     }
 
+    /**
+     * Learn the outcome of a transaction reported FABRIC_COMMIT_UNKNOWN: wait for its commit again,
+     * or look it up on the ledger once the connection no longer tracks it, and answer like its
+     * sendTransaction, the output is read back from the ledger. A transaction whose commit is still
+     * not seen, or whose output can't be read, stays FABRIC_COMMIT_UNKNOWN.
+     */
+    private void asyncResolveTransaction(
+            TransactionContext<TransactionRequest> request,
+            Connection connection,
+            String txID,
+            Driver.Callback callback) {
+        Request waitRequest = new Request();
+        waitRequest.setType(FabricType.ConnectionMessage.FABRIC_WAIT_TRANSACTION_COMMIT);
+        waitRequest.setData(txID.getBytes(StandardCharsets.UTF_8));
+        waitRequest.setResourceInfo(request.getResourceInfo());
+        connection.asyncSend(
+                waitRequest,
+                new Connection.Callback() {
+                    @Override
+                    public void onResponse(Response commitResponse) {
+                        if (commitResponse.getErrorCode()
+                                == FabricType.TransactionResponseStatus.SUCCESS) {
+                            long blockNumber = bytesToLong(commitResponse.getData());
+                            Runnable resolve =
+                                    () ->
+                                            resolveCommitted(
+                                                    request,
+                                                    connection,
+                                                    txID,
+                                                    blockNumber,
+                                                    callback);
+                            try {
+                                pipeline.getVerifyStage().execute(resolve);
+                            } catch (RejectedExecutionException e) {
+                                // committed, failing it now would let a retry send it again
+                                resolve.run();
+                            }
+                        } else if (commitResponse.getErrorCode()
+                                == FabricType.TransactionResponseStatus
+                                        .FABRIC_EXECUTE_CHAINCODE_FAILED) {
+                            TransactionResponse response = new TransactionResponse();
+                            response.setHash(txID);
+                            response.setErrorCode(new Integer(commitResponse.getData()[0]));
+                            response.setErrorMessage(commitResponse.getErrorMessage());
+                            callback.onTransactionResponse(
+                                    new TransactionException(
+                                            commitResponse.getErrorCode(),
+                                            commitResponse.getErrorMessage()),
+                                    response);
+                        } else {
+                            // not tracked any more, or still not committed
+                            TransactionResponse response = new TransactionResponse();
+                            response.setHash(txID);
+                            callback.onTransactionResponse(
+                                    new TransactionException(
+                                            FabricType.TransactionResponseStatus
+                                                    .FABRIC_COMMIT_UNKNOWN,
+                                            "Outcome of transaction "
+                                                    + txID
+                                                    + " unknown: "
+                                                    + commitResponse.getErrorMessage()),
+                                    response);
+                        }
+                    }
+                });
+    }
+
+    private void resolveCommitted(
+            TransactionContext<TransactionRequest> request,
+            Connection connection,
+            String txID,
+            long blockNumber,
+            Driver.Callback callback) {
+        VerifiedTransaction verifiedTransaction =
+                getVerifiedTransaction(
+                        txID, blockNumber, request.getBlockHeaderManager(), connection);
+        if (verifiedTransaction == null) {
+            // committed, but not read back this time
+            TransactionResponse response = new TransactionResponse();
+            response.setHash(txID);
+            response.setBlockNumber(blockNumber);
+            callback.onTransactionResponse(
+                    new TransactionException(
+                            FabricType.TransactionResponseStatus.FABRIC_COMMIT_UNKNOWN,
+                            "Transaction "
+                                    + txID
+                                    + " committed in block "
+                                    + blockNumber
+                                    + ", get its output failed"),
+                    response);
+            return;
+        }
+
+        TransactionResponse response = verifiedTransaction.getTransactionResponse();
+        response.setErrorMessage("Success");
+        callback.onTransactionResponse(
+                TransactionException.Builder.newSuccessException(), response);
+    }
+
     @Override
     public long getBlockNumber(Connection connection) {
         // Test failed
@@ -530,24 +964,105 @@ public class FabricDriver implements Driver {
                     @Override
                     public void onBlockHeader(byte[] blockBytes) {
                         logger.debug("Receive block, verify transaction ...");
+                        Runnable verify =
+                                () -> {
+                                    try {
+                                        FabricBlock block = FabricBlock.encode(blockBytes);
+                                        boolean verifyResult = block.hasTransaction(txID);
+                                        logger.debug(
+                                                "Tx(block: "
+                                                        + blockNumber
+                                                        + "): "
+                                                        + txID
+                                                        + " verify: "
+                                                        + verifyResult);
+                                        callback.accept(verifyResult);
+                                    } catch (Exception e) {
+                                        callback.accept(false);
+                                    }
+                                };
                         try {
-                            FabricBlock block = FabricBlock.encode(blockBytes);
-                            boolean verifyResult = block.hasTransaction(txID);
-                            logger.debug(
-                                    "Tx(block: "
-                                            + blockNumber
-                                            + "): "
-                                            + txID
-                                            + " verify: "
-                                            + verifyResult);
-                            callback.accept(verifyResult);
-                        } catch (Exception e) {
-                            callback.accept(false);
+                            pipeline.getVerifyStage().execute(verify);
+                        } catch (RejectedExecutionException e) {
+                            // The transaction is committed, verify it here rather than fail it
+                            verify.run();
                         }
                     }
                 });
     }
 
+    /** Deadline from the transaction timeout the resource publishes. */
+    private TransactionDeadline newDeadline(TransactionContext<TransactionRequest> request) {
+        return TransactionDeadline.after(
+                getLongProperty(
+                        request,
+                        FabricType.ResourceInfoProperty.TRANSACTION_TIMEOUT,
+                        TransactionDeadline.DEFAULT_TIMEOUT));
+    }
+
+    /** The MVCC retry policy of the resource, null if it doesn't retry. */
+    private MvccRetryPolicy getMvccRetryPolicy(TransactionContext<TransactionRequest> request) {
+        long retries = getLongProperty(request, FabricType.ResourceInfoProperty.MVCC_RETRIES, 0);
+        if (retries <= 0) {
+            return null;
+        }
+
+        return mvccRetryPolicies.computeIfAbsent(
+                request.getResourceInfo().getName(),
+                name ->
+                        new MvccRetryPolicy(
+                                (int) retries,
+                                getLongProperty(
+                                        request,
+                                        FabricType.ResourceInfoProperty.MVCC_RETRY_BACKOFF,
+                                        FabricStubConfigParser.DEFAULT_MVCC_RETRY_BACKOFF)));
+    }
+
+    /** The write coalescer of the resource, null if it has no batch method. */
+    private WriteCoalescer getWriteCoalescer(TransactionContext<TransactionRequest> request) {
+        ResourceInfo resourceInfo = request.getResourceInfo();
+        if (resourceInfo == null
+                || resourceInfo.getProperties() == null
+                || !resourceInfo
+                        .getProperties()
+                        .containsKey(FabricType.ResourceInfoProperty.COALESCE_METHOD)) {
+            return null;
+        }
+
+        return writeCoalescers.computeIfAbsent(
+                resourceInfo.getName(), name -> newWriteCoalescer(request));
+    }
+
+    private WriteCoalescer newWriteCoalescer(TransactionContext<TransactionRequest> request) {
+        Map<Object, Object> properties = request.getResourceInfo().getProperties();
+        return new WriteCoalescer(
+                (batch, connection, callback) ->
+                        asyncSendTransaction(batch, connection, newDeadline(batch), callback),
+                properties.get(FabricType.ResourceInfoProperty.COALESCE_METHOD).toString(),
+                String.valueOf(
+                        properties.get(FabricType.ResourceInfoProperty.COALESCE_BATCH_METHOD)),
+                getLongProperty(
+                        request,
+                        FabricType.ResourceInfoProperty.COALESCE_WINDOW,
+                        FabricStubConfigParser.DEFAULT_COALESCE_WINDOW),
+                (int)
+                        getLongProperty(
+                                request,
+                                FabricType.ResourceInfoProperty.COALESCE_SIZE,
+                                FabricStubConfigParser.DEFAULT_COALESCE_SIZE));
+    }
+
+    private static long getLongProperty(
+            TransactionContext<TransactionRequest> request, String key, long defaultValue) {
+        ResourceInfo resourceInfo = request.getResourceInfo();
+        if (resourceInfo == null || resourceInfo.getProperties() == null) {
+            return defaultValue;
+        }
+
+        Object property = resourceInfo.getProperties().get(key);
+        return property == null ? defaultValue : Long.parseLong(property.toString());
+    }
+
     private void checkRequest(TransactionContext<TransactionRequest> request) throws Exception {
         if (request.getAccount() == null) {
             throw new Exception("Unknown account");
@@ -1,63 +1,105 @@
 package com.cayden.sample.fabric;
 
-import org.hyperledger.fabric.protos.common.Common;
-import org.hyperledger.fabric.protos.orderer.Ab;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.ManagedChannel;
+import io.grpc.netty.NettyChannelBuilder;
 import org.hyperledger.fabric.protos.peer.FabricProposal;
+import org.hyperledger.fabric.protos.peer.FabricProposalResponse;
 import org.hyperledger.fabric.sdk.*;
+import org.hyperledger.fabric.sdk.security.CryptoSuite;
 import org.hyperledger.fabric.sdk.transaction.TransactionContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.Collection;
+import java.util.Properties;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
 
+/**
+ * Non public Fabric SDK functions. They are bound once to static final method handles, which the
+ * JIT inlines like direct calls, and the exceptions thrown by the SDK pass through unchanged. If
+ * the SDK signatures change the constructor fails instead of the first transaction.
+ */
 public class FabricInnerFunction {
     private Logger logger = LoggerFactory.getLogger(FabricInnerFunction.class);
 
-    // Fabric inner functions
-    private Method methodSendProposalToPeers;
-    private Method methodSendTransactionToOrderer;
-    private Method methodRegisterTxListener;
+    private static final String ENDPOINT_CLASS_NAME = "org.hyperledger.fabric.sdk.Endpoint";
+
+    private static Exception lookupException;
+
+    // Collection<ProposalResponse> Channel.sendProposalToPeers(Collection<Peer> peers,
+    // SignedProposal signedProposal, TransactionContext transactionContext)
+    private static final MethodHandle sendProposalToPeers =
+            find(
+                    Channel.class,
+                    "sendProposalToPeers",
+                    Collection.class,
+                    Collection.class,
+                    FabricProposal.SignedProposal.class,
+                    TransactionContext.class);
+
+    // static Endpoint Endpoint.createEndpoint(String url, Properties properties), the Endpoint
+    // class is package private so it is passed around as Object
+    private static final MethodHandle createEndpoint =
+            find(
+                    ENDPOINT_CLASS_NAME,
+                    "createEndpoint",
+                    Object.class,
+                    String.class,
+                    Properties.class);
+
+    // NettyChannelBuilder Endpoint.getChannelBuilder()
+    private static final MethodHandle getChannelBuilder =
+            find(ENDPOINT_CLASS_NAME, "getChannelBuilder", NettyChannelBuilder.class);
+
+    // ListenableFuture<ProposalResponse> Peer.sendProposalAsync(SignedProposal proposal)
+    private static final MethodHandle sendProposalAsync =
+            find(
+                    Peer.class,
+                    "sendProposalAsync",
+                    ListenableFuture.class,
+                    FabricProposal.SignedProposal.class);
+
+    // ProposalResponse(TransactionContext transactionContext, int status, String message)
+    private static final MethodHandle newProposalResponse =
+            findConstructor(
+                    ProposalResponse.class, TransactionContext.class, int.class, String.class);
+
+    private static final MethodHandle setProposalResponse =
+            find(
+                    ProposalResponse.class,
+                    "setProposalResponse",
+                    void.class,
+                    FabricProposalResponse.ProposalResponse.class);
+    private static final MethodHandle setProposal =
+            find(
+                    ProposalResponse.class,
+                    "setProposal",
+                    void.class,
+                    FabricProposal.SignedProposal.class);
+    private static final MethodHandle setPeer =
+            find(ProposalResponse.class, "setPeer", void.class, Peer.class);
+    private static final MethodHandle verify =
+            find(ProposalResponse.class, "verify", boolean.class, CryptoSuite.class);
 
     private Channel channel;
 
-    public FabricInnerFunction(Channel channel) {
-        this.channel = channel;
-        try {
-            // enable channel.sendProposalToPeers()
-            methodSendProposalToPeers =
-                    channel.getClass()
-                            .getDeclaredMethod(
-                                    "sendProposalToPeers",
-                                    new Class[] {
-                                        Collection.class,
-                                        org.hyperledger.fabric.protos.peer.FabricProposal
-                                                .SignedProposal.class,
-                                        TransactionContext.class
-                                    });
-            methodSendProposalToPeers.setAccessible(true);
-
-            // sendTransaction(Common.Envelope transaction)
-            methodSendTransactionToOrderer =
-                    Orderer.class.getDeclaredMethod(
-                            "sendTransaction", new Class[] {Common.Envelope.class});
-            methodSendTransactionToOrderer.setAccessible(true);
-
-            // Channel.CompletableFuture<TransactionEvent> registerTxListener(String txid, NOfEvents
-            // nOfEvents, boolean failFast)
-            methodRegisterTxListener =
-                    channel.getClass()
-                            .getDeclaredMethod(
-                                    "registerTxListener",
-                                    new Class[] {
-                                        String.class, Channel.NOfEvents.class, boolean.class
-                                    });
-            methodRegisterTxListener.setAccessible(true);
-        } catch (Exception e) {
-            logger.error("enableFabricInnerFunctions exception: " + e);
+    public FabricInnerFunction(Channel channel) throws Exception {
+        if (lookupException != null) {
+            throw new Exception(
+                    "Fabric SDK inner functions not found, check the SDK version: "
+                            + lookupException,
+                    lookupException);
         }
+        this.channel = channel;
     }
 
     public Collection<ProposalResponse> sendProposalToPeers(
@@ -67,30 +109,194 @@ public class FabricInnerFunction {
             throws Exception {
         try {
             return (Collection<ProposalResponse>)
-                    methodSendProposalToPeers.invoke(
-                            (Object) channel, peers, signedProposal, transactionContext);
-        } catch (InvocationTargetException e) {
-            throw new Exception(e.getTargetException().getMessage());
+                    (Collection) sendProposalToPeers.invokeExact(
+                            channel, peers, signedProposal, transactionContext);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Send a proposal to one peer without blocking, the same way Channel.sendProposalToPeers()
+     * builds its responses. Cancelling the returned future cancels the gRPC call.
+     */
+    public CompletableFuture<ProposalResponse> sendProposalAsync(
+            Peer peer,
+            FabricProposal.SignedProposal signedProposal,
+            TransactionContext transactionContext)
+            throws Exception {
+        ListenableFuture<FabricProposalResponse.ProposalResponse> peerFuture;
+        try {
+            peerFuture =
+                    (ListenableFuture<FabricProposalResponse.ProposalResponse>)
+                            (ListenableFuture) sendProposalAsync.invokeExact(peer, signedProposal);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+
+        CompletableFuture<ProposalResponse> future = new CompletableFuture<>();
+        future.whenComplete(
+                new BiConsumer<ProposalResponse, Throwable>() {
+                    @Override
+                    public void accept(ProposalResponse response, Throwable throwable) {
+                        if (future.isCancelled()) {
+                            peerFuture.cancel(true);
+                        }
+                    }
+                });
+
+        peerFuture.addListener(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        if (peerFuture.isCancelled()) {
+                            return;
+                        }
+
+                        FabricProposalResponse.ProposalResponse fabricResponse = null;
+                        int status = 500;
+                        String message;
+                        try {
+                            fabricResponse = peerFuture.get();
+                            status = fabricResponse.getResponse().getStatus();
+                            message = fabricResponse.getResponse().getMessage();
+                        } catch (ExecutionException e) {
+                            message =
+                                    "Sending proposal to "
+                                            + peer.getName()
+                                            + " failed because of: "
+                                            + e.getCause();
+                        } catch (Exception e) {
+                            message = "Sending proposal to " + peer.getName() + " failed: " + e;
+                        }
+
+                        try {
+                            future.complete(
+                                    newProposalResponse(
+                                            transactionContext,
+                                            status,
+                                            message,
+                                            fabricResponse,
+                                            signedProposal,
+                                            peer));
+                        } catch (Exception e) {
+                            future.completeExceptionally(e);
+                        }
+                    }
+                },
+                Runnable::run);
+        return future;
+    }
+
+    public ProposalResponse newProposalResponse(
+            TransactionContext transactionContext,
+            int status,
+            String message,
+            FabricProposalResponse.ProposalResponse fabricResponse,
+            FabricProposal.SignedProposal signedProposal,
+            Peer peer)
+            throws Exception {
+        try {
+            ProposalResponse proposalResponse =
+                    (ProposalResponse)
+                            newProposalResponse.invokeExact(transactionContext, status, message);
+            setProposalResponse.invokeExact(proposalResponse, fabricResponse);
+            setProposal.invokeExact(proposalResponse, signedProposal);
+            setPeer.invokeExact(proposalResponse, peer);
+            if (fabricResponse != null && transactionContext.getVerify()) {
+                // marks the response invalid if the endorsement signature does not verify, the
+                // (boolean) cast keeps the call site type invokeExact needs
+                if (!(boolean)
+                        verify.invokeExact(
+                                proposalResponse, transactionContext.getCryptoPrimitives())) {
+                    logger.warn(
+                            "Endorsement of {} by {} does not verify",
+                            transactionContext.getTxID(),
+                            peer);
+                }
+            }
+            return proposalResponse;
+        } catch (Throwable t) {
+            throw rethrow(t);
         }
     }
 
-    public Ab.BroadcastResponse sendTransactionToOrderer(
-            Orderer orderer, Common.Envelope transactionEnvelope) throws Exception {
+    /** A gRPC channel to the orderer with the same TLS and keepalive settings the SDK uses. */
+    public ManagedChannel newManagedChannel(Orderer orderer) throws Exception {
         try {
-            return (Ab.BroadcastResponse)
-                    methodSendTransactionToOrderer.invoke((Object) orderer, transactionEnvelope);
-        } catch (InvocationTargetException e) {
-            throw new Exception(e.getTargetException().getMessage());
+            Object endpoint = createEndpoint.invokeExact(orderer.getUrl(), orderer.getProperties());
+            return ((NettyChannelBuilder) getChannelBuilder.invokeExact(endpoint)).build();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static Exception rethrow(Throwable t) {
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t instanceof Exception) {
+            return (Exception) t;
         }
+        return new Exception(t);
     }
 
-    public CompletableFuture<BlockEvent.TransactionEvent> registerTxListener(
-            String txid, Channel.NOfEvents nOfEvents, boolean failFast) throws Exception {
+    private static MethodHandle find(
+            Class<?> clazz, String name, Class<?> returnType, Class<?>... parameterTypes) {
         try {
-            return (CompletableFuture<BlockEvent.TransactionEvent>)
-                    methodRegisterTxListener.invoke((Object) channel, txid, nOfEvents, true);
-        } catch (InvocationTargetException e) {
-            throw new Exception(e.getTargetException().getMessage());
+            Method method = clazz.getDeclaredMethod(name, parameterTypes);
+            if (method.getReturnType() != returnType) {
+                throw new NoSuchMethodException(
+                        clazz.getName() + "." + name + " returns " + method.getReturnType());
+            }
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (Exception e) {
+            lookupException = e;
+            return unavailable(clazz, parameterTypes);
         }
     }
+
+    /**
+     * Look up a method of a class which is not public. The handle takes and returns the given
+     * public types, so Object stands for the hidden class itself.
+     */
+    private static MethodHandle find(
+            String className, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            Class<?> clazz = Class.forName(className);
+            Method method = clazz.getDeclaredMethod(name, parameterTypes);
+            if (!returnType.isAssignableFrom(method.getReturnType())) {
+                throw new NoSuchMethodException(
+                        className + "." + name + " returns " + method.getReturnType());
+            }
+            method.setAccessible(true);
+
+            MethodType type = MethodType.methodType(returnType, parameterTypes);
+            if (!Modifier.isStatic(method.getModifiers())) {
+                type = type.insertParameterTypes(0, Object.class);
+            }
+            return MethodHandles.lookup().unreflect(method).asType(type);
+        } catch (Exception e) {
+            lookupException = e;
+            return unavailable(Object.class, parameterTypes);
+        }
+    }
+
+    private static MethodHandle findConstructor(Class<?> clazz, Class<?>... parameterTypes) {
+        try {
+            Constructor<?> constructor = clazz.getDeclaredConstructor(parameterTypes);
+            constructor.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(constructor);
+        } catch (Exception e) {
+            lookupException = e;
+            return unavailable(clazz, parameterTypes);
+        }
+    }
+
+    // Never called, the constructor refuses to build if any lookup failed
+    private static MethodHandle unavailable(Class<?> clazz, Class<?>... parameterTypes) {
+        return MethodHandles.throwException(Object.class, UnsupportedOperationException.class)
+                .bindTo(new UnsupportedOperationException("Missing " + clazz.getName()));
+    }
 }
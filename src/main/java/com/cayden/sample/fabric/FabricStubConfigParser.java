@@ -3,6 +3,7 @@ package com.cayden.sample.fabric;
 /*
 [common]
     type = 'FABRIC'
+    outbox = 'outbox/fabric.log' # optional, submissions replayed after a crash
 
 [fabricServices]
     channelName = 'mychannel'
@@ -13,6 +14,15 @@ package com.cayden.sample.fabric;
     ordererTlsCaFile = 'classpath:/chains/fabric/ordererTlsCaFile'
     ordererAddress = 'grpcs://127.0.0.1:7050'
 
+# optional, replaces ordererTlsCaFile and ordererAddress above
+[orderers]
+    [orderers.orderer0]
+        ordererTlsCaFile = 'classpath:/chains/fabric/ordererTlsCaFile'
+        ordererAddress = 'grpcs://127.0.0.1:7050'
+    [orderers.orderer1]
+        ordererTlsCaFile = 'classpath:/chains/fabric/ordererTlsCaFile'
+        ordererAddress = 'grpcs://127.0.0.1:8050'
+
 [peers]
     [peers.org1]
         peerTlsCaFile = 'classpath:/chains/fabric/peerOrg1CertFile'
@@ -42,16 +52,24 @@ import com.cayden.sample.utils.FabricUtils;
 
 import java.io.File;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 public class FabricStubConfigParser {
     public static final long DEFAULT_PROPOSAL_WAIT_TIME = 120000; // ms
+    public static final long DEFAULT_ENDORSER_QUORUM = 0; // endorsement policy
+    public static final long DEFAULT_CALL_VERIFY_PEERS = 1; // single peer
+    public static final long DEFAULT_MVCC_RETRY_BACKOFF = 50; // ms
+    public static final String DEFAULT_COMMIT_STRATEGY = "first";
+    public static final long DEFAULT_COALESCE_WINDOW = 10; // ms
+    public static final long DEFAULT_COALESCE_SIZE = 100; // writes per batch
     private String stubPath;
 
     private Common common;
     private FabricServices fabricServices;
+    private Orderers orderers;
     private Peers peers;
     private Resources resources;
 
@@ -68,6 +86,7 @@ public class FabricStubConfigParser {
 
             common = new Common(toml);
             fabricServices = new FabricServices(toml, stubPath);
+            orderers = new Orderers(toml, stubPath, fabricServices);
             peers = new Peers(toml, stubPath);
             resources = new Resources(toml);
 
@@ -84,6 +103,10 @@ public class FabricStubConfigParser {
         return fabricServices;
     }
 
+    public Map<String, Orderers.Orderer> getOrderers() {
+        return orderers.getOrderers();
+    }
+
     public Map<String, Peers.Peer> getPeers() {
         return peers.getPeers();
     }
@@ -96,16 +119,23 @@ public class FabricStubConfigParser {
         /*
             [common]
             type = 'FABRIC'
+            outbox = 'outbox/fabric.log' # relative to the working directory, none if absent
         */
         private String type;
+        private String outbox;
 
         public Common(Toml toml) throws Exception {
             type = parseString(toml, "common.type");
+            outbox = toml.getString("common.outbox");
         }
 
         public String getType() {
             return type;
         }
+
+        public String getOutbox() {
+            return outbox;
+        }
     }
 
     public static class FabricServices {
@@ -116,6 +146,7 @@ public class FabricStubConfigParser {
             mspId = 'Org1MSP'
             orgUserName = 'fabric1'
             orgUserAccountPath = 'classpath:/accounts/fabric1'
+            # optional if [orderers] is given
             ordererTlsCaFile = 'ordererTlsCaFile'
             ordererAddress = 'grpcs://127.0.0.1:7050'
         */
@@ -134,12 +165,14 @@ public class FabricStubConfigParser {
             orgUserName = parseString(toml, "fabricServices.orgUserName");
             orgUserAccountPath =
                     FabricUtils.getPath(parseString(toml, "fabricServices.orgUserAccountPath"));
-            ordererTlsCaFile =
-                    FabricUtils.getPath(
-                            stubPath
-                                    + File.separator
-                                    + parseString(toml, "fabricServices.ordererTlsCaFile"));
-            ordererAddress = parseString(toml, "fabricServices.ordererAddress");
+            if (toml.getString("fabricServices.ordererTlsCaFile") != null) {
+                ordererTlsCaFile =
+                        FabricUtils.getPath(
+                                stubPath
+                                        + File.separator
+                                        + parseString(toml, "fabricServices.ordererTlsCaFile"));
+            }
+            ordererAddress = toml.getString("fabricServices.ordererAddress");
         }
 
         public String getChannelName() {
@@ -171,12 +204,87 @@ public class FabricStubConfigParser {
         }
     }
 
+    public static class Orderers {
+        /*
+            [orderers]
+                [orderers.orderer0]
+                    ordererTlsCaFile = 'classpath:/chains/fabric/ordererTlsCaFile'
+                    ordererAddress = 'grpcs://127.0.0.1:7050'
+                [orderers.orderer1]
+                    ordererTlsCaFile = 'classpath:/chains/fabric/ordererTlsCaFile'
+                    ordererAddress = 'grpcs://127.0.0.1:8050'
+        */
+
+        private Map<String, Orderer> orderers = new LinkedHashMap<>();
+
+        public Orderers(Toml toml, String stubPath, FabricServices fabricServices)
+                throws Exception {
+            @SuppressWarnings("unchecked")
+            Map<String, Map<String, String>> orderersMaps =
+                    (Map<String, Map<String, String>>) toml.toMap().get("orderers");
+            if (orderersMaps == null) {
+                // the single orderer of [fabricServices]
+                if (fabricServices.getOrdererAddress() == null
+                        || fabricServices.getOrdererTlsCaFile() == null) {
+                    throw new Exception("\" + orderers \" item illegal");
+                }
+                orderers.put(
+                        "orderer",
+                        new Orderer(
+                                fabricServices.getOrdererTlsCaFile(),
+                                fabricServices.getOrdererAddress()));
+                return;
+            }
+
+            for (String ordererName : orderersMaps.keySet()) {
+                try {
+                    orderers.put(ordererName, new Orderer(orderersMaps.get(ordererName), stubPath));
+                } catch (Exception e) {
+                    throw new Exception("\"" + ordererName + "\"." + e);
+                }
+            }
+        }
+
+        public Map<String, Orderer> getOrderers() {
+            return orderers;
+        }
+
+        public static class Orderer {
+            private String ordererTlsCaFile;
+            private String ordererAddress;
+
+            public Orderer(Map<String, String> ordererMap, String stubPath) throws Exception {
+                this(
+                        FabricUtils.getPath(
+                                stubPath
+                                        + File.separator
+                                        + parseString(ordererMap, "ordererTlsCaFile")),
+                        parseString(ordererMap, "ordererAddress"));
+            }
+
+            public Orderer(String ordererTlsCaFile, String ordererAddress) {
+                this.ordererTlsCaFile = ordererTlsCaFile;
+                this.ordererAddress = ordererAddress;
+            }
+
+            public String getOrdererTlsCaFile() {
+                return ordererTlsCaFile;
+            }
+
+            public String getOrdererAddress() {
+                return ordererAddress;
+            }
+        }
+    }
+
     public static class Peers {
         /*
             [peers]
                 [peers.org1]
                     peerTlsCaFile = 'classpath:/chains/fabric/peerOrg1CertFile'
                     peerAddress = 'grpcs://127.0.0.1:7051'
+                    # optional, organization of the peer, learned from endorsements if absent
+                    mspId = 'Org1MSP'
                 [peers.org2]
                      peerTlsCaFile = 'classpath:/chains/fabric/peerOrg2CertFile'
                      peerAddress = 'grpcs://127.0.0.1:9051'
@@ -210,12 +318,14 @@ public class FabricStubConfigParser {
         public static class Peer {
             private String peerTlsCaFile;
             private String peerAddress;
+            private String mspId;
 
             public Peer(Map<String, String> peerMap, String stubPath) throws Exception {
                 peerTlsCaFile =
                         FabricUtils.getPath(
                                 stubPath + File.separator + parseString(peerMap, "peerTlsCaFile"));
                 peerAddress = parseString(peerMap, "peerAddress");
+                mspId = peerMap.get("mspId");
             }
 
             public String getPeerTlsCaFile() {
@@ -225,6 +335,10 @@ public class FabricStubConfigParser {
             public String getPeerAddress() {
                 return peerAddress;
             }
+
+            public String getMspId() {
+                return mspId;
+            }
         }
     }
 
@@ -238,6 +352,34 @@ public class FabricStubConfigParser {
                 chainCodeName = 'mycc'
                 chainLanguage = "go"
                 peers=['org1','org2']
+                # optional, per peer deadline (ms) and successful endorsements needed
+                # (0 follows the chaincode endorsement policy)
+                endorserTimeout = 5000
+                endorserQuorum = 0
+                # optional, peers which must return the same query result (1 is the best peer,
+                # the next one is only asked if it fails)
+                callVerifyPeers = 1
+                # optional, organizations which must be among the peers agreeing on the result
+                callVerifyOrgs = ['Org1MSP']
+                # optional, default deadline (ms) of a transaction from endorsement to commit
+                transactionTimeout = 30000
+                # optional, times a transaction failing with an MVCC or phantom read conflict is
+                # endorsed and sent again (0 is off), and the base backoff (ms) before a retry
+                mvccRetries = 3
+                mvccRetryBackoff = 50
+                # optional, event peers which must report a commit: 'first', 'quorum' or 'all',
+                # and how long (ms) from the broadcast the commit is waited for (0 until deadline)
+                commitStrategy = 'first'
+                commitTimeout = 0
+                # optional, writes to coalesceMethod are sent as one coalesceBatchMethod
+                # transaction with args [arity, args of write 1, ...] after at most coalesceWindow
+                # (ms) or coalesceSize writes, its result holds one line per write. A batch
+                # rejected at endorsement is resent write by write, any other failure of the
+                # batch (e.g. an MVCC conflict left after mvccRetries) fails all of its writes
+                coalesceMethod = 'set'
+                coalesceBatchMethod = 'setBatch'
+                coalesceWindow = 10
+                coalesceSize = 100
             [[resources]]
                 name = 'HelloWorld'
                 type = 'FABRIC_CONTRACT'
@@ -271,6 +413,19 @@ public class FabricStubConfigParser {
             private String chainLanguage;
             private List<String> peers;
             private Long proposalWaitTime = DEFAULT_PROPOSAL_WAIT_TIME;
+            private Long endorserTimeout;
+            private Long endorserQuorum = DEFAULT_ENDORSER_QUORUM;
+            private Long callVerifyPeers = DEFAULT_CALL_VERIFY_PEERS;
+            private List<String> callVerifyOrgs = new LinkedList<>();
+            private Long transactionTimeout = TransactionDeadline.DEFAULT_TIMEOUT;
+            private Long mvccRetries = 0L;
+            private Long mvccRetryBackoff = DEFAULT_MVCC_RETRY_BACKOFF;
+            private String commitStrategy = DEFAULT_COMMIT_STRATEGY;
+            private Long commitTimeout = 0L;
+            private String coalesceMethod;
+            private String coalesceBatchMethod;
+            private Long coalesceWindow = DEFAULT_COALESCE_WINDOW;
+            private Long coalesceSize = DEFAULT_COALESCE_SIZE;
 
             public Resource(Map<String, Object> map) throws Exception {
                 name = parseStringBase(map, "name");
@@ -282,6 +437,56 @@ public class FabricStubConfigParser {
                 if (map.containsKey("proposalWaitTime")) {
                     proposalWaitTime = (Long) map.get("proposalWaitTime");
                 }
+
+                endorserTimeout = proposalWaitTime;
+                if (map.containsKey("endorserTimeout")) {
+                    endorserTimeout = (Long) map.get("endorserTimeout");
+                }
+
+                if (map.containsKey("endorserQuorum")) {
+                    endorserQuorum = (Long) map.get("endorserQuorum");
+                }
+
+                if (map.containsKey("callVerifyPeers")) {
+                    callVerifyPeers = (Long) map.get("callVerifyPeers");
+                }
+
+                if (map.containsKey("callVerifyOrgs")) {
+                    callVerifyOrgs = parseStringList(map, "callVerifyOrgs");
+                }
+
+                if (map.containsKey("transactionTimeout")) {
+                    transactionTimeout = (Long) map.get("transactionTimeout");
+                }
+
+                if (map.containsKey("mvccRetries")) {
+                    mvccRetries = (Long) map.get("mvccRetries");
+                }
+
+                if (map.containsKey("mvccRetryBackoff")) {
+                    mvccRetryBackoff = (Long) map.get("mvccRetryBackoff");
+                }
+
+                if (map.containsKey("commitStrategy")) {
+                    commitStrategy = parseStringBase(map, "commitStrategy");
+                }
+
+                if (map.containsKey("commitTimeout")) {
+                    commitTimeout = (Long) map.get("commitTimeout");
+                }
+
+                if (map.containsKey("coalesceMethod")) {
+                    coalesceMethod = parseStringBase(map, "coalesceMethod");
+                    coalesceBatchMethod = parseStringBase(map, "coalesceBatchMethod");
+                }
+
+                if (map.containsKey("coalesceWindow")) {
+                    coalesceWindow = (Long) map.get("coalesceWindow");
+                }
+
+                if (map.containsKey("coalesceSize")) {
+                    coalesceSize = (Long) map.get("coalesceSize");
+                }
             }
 
             public String getName() {
@@ -307,6 +512,58 @@ public class FabricStubConfigParser {
             public Long getProposalWaitTime() {
                 return proposalWaitTime;
             }
+
+            public Long getEndorserTimeout() {
+                return endorserTimeout;
+            }
+
+            public Long getEndorserQuorum() {
+                return endorserQuorum;
+            }
+
+            public Long getCallVerifyPeers() {
+                return callVerifyPeers;
+            }
+
+            public List<String> getCallVerifyOrgs() {
+                return callVerifyOrgs;
+            }
+
+            public Long getTransactionTimeout() {
+                return transactionTimeout;
+            }
+
+            public Long getMvccRetries() {
+                return mvccRetries;
+            }
+
+            public Long getMvccRetryBackoff() {
+                return mvccRetryBackoff;
+            }
+
+            public String getCommitStrategy() {
+                return commitStrategy;
+            }
+
+            public Long getCommitTimeout() {
+                return commitTimeout;
+            }
+
+            public String getCoalesceMethod() {
+                return coalesceMethod;
+            }
+
+            public String getCoalesceBatchMethod() {
+                return coalesceBatchMethod;
+            }
+
+            public Long getCoalesceWindow() {
+                return coalesceWindow;
+            }
+
+            public Long getCoalesceSize() {
+                return coalesceSize;
+            }
         }
     }
 
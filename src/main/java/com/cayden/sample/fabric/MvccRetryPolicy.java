@@ -0,0 +1,57 @@
+package com.cayden.sample.fabric;
+
+import org.hyperledger.fabric.protos.peer.FabricTransaction;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Resubmission of transactions of one resource which failed validation with MVCC_READ_CONFLICT or
+ * PHANTOM_READ_CONFLICT. A retry is endorsed again, so it reads the current state under a new
+ * txID, after a full jitter backoff of random(0, min(MAX_BACKOFF, backoff * 2^attempt)).
+ *
+ * <p>Besides maxRetries per transaction, retries of the resource draw from a budget which every
+ * transaction refills by BUDGET_RATIO, so a hot key can't multiply the load on the network.
+ */
+public class MvccRetryPolicy {
+    private static final double BUDGET_RATIO = 0.2; // retries per transaction
+    private static final double INITIAL_TOKENS = 10;
+    private static final double MAX_TOKENS = 100;
+    private static final long MAX_BACKOFF = 2000; // ms
+
+    private int maxRetries;
+    private long backoff;
+    private double tokens = INITIAL_TOKENS;
+
+    public MvccRetryPolicy(int maxRetries, long backoff) {
+        this.maxRetries = maxRetries;
+        this.backoff = backoff;
+    }
+
+    public static boolean isConflict(int validationCode) {
+        return validationCode == FabricTransaction.TxValidationCode.MVCC_READ_CONFLICT_VALUE
+                || validationCode == FabricTransaction.TxValidationCode.PHANTOM_READ_CONFLICT_VALUE;
+    }
+
+    /** Called once per transaction sent, not per retry. */
+    public synchronized void onTransaction() {
+        tokens = Math.min(tokens + BUDGET_RATIO, MAX_TOKENS);
+    }
+
+    /** True if the transaction may be sent again after attempt retries, takes a token then. */
+    public synchronized boolean tryRetry(int attempt) {
+        if (attempt >= maxRetries || tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    public long nextBackoff(int attempt) {
+        long bound = Math.min(MAX_BACKOFF, backoff << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+}
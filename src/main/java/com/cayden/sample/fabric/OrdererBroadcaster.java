@@ -0,0 +1,394 @@
+package com.cayden.sample.fabric;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.protos.orderer.Ab;
+import org.hyperledger.fabric.protos.orderer.AtomicBroadcastGrpc;
+import org.hyperledger.fabric.sdk.Orderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Keeps one long lived Broadcast stream per orderer instead of the blocking round-trip of
+ * Orderer.sendTransaction(). Envelopes are pipelined on the stream, the orderer answers them in
+ * order so each response completes the oldest pending envelope. A stream that fails or misses a
+ * response fails all its pending envelopes and is opened again by the next envelope.
+ *
+ * <p>Each orderer only gets as many envelopes in flight as its AimdWindow allows, the others wait
+ * in a bounded local queue. SERVICE_UNAVAILABLE, stream failures and slow acks shrink the window.
+ * The same outcomes feed the OrdererSelector which decides the orderer of each transaction.
+ *
+ * <p>Messages of a stream can't carry their own gRPC deadline, so an envelope whose deadline
+ * passes while it is queued is dropped and never sent.
+ *
+ * <p>The orderer ends the stream after any non-SUCCESS response, so the envelopes pipelined
+ * behind a rejected, timed out or failed envelope are put back in front of the queue and sent
+ * again on a new stream, at most MAX_REQUEUES times. One that was processed after all comes back
+ * as a duplicate txID, which the peers invalidate.
+ */
+public class OrdererBroadcaster {
+    private Logger logger = LoggerFactory.getLogger(OrdererBroadcaster.class);
+
+    private static final String ORDERER_WAIT_TIME_PROPERTY = "ordererWaitTimeMilliSecs";
+    private static final long DEFAULT_ORDERER_WAIT_TIME = 10000;
+    private static final int MAX_QUEUED_ENVELOPES = 10000;
+    private static final int MAX_REQUEUES = 2;
+    private static final Timer timeoutHandler = new HashedWheelTimer();
+
+    private FabricInnerFunction fabricInnerFunction;
+    private Map<Orderer, OrdererStream> streams = new ConcurrentHashMap<>();
+    private OrdererSelector selector = new OrdererSelector();
+
+    public OrdererBroadcaster(FabricInnerFunction fabricInnerFunction) {
+        this.fabricInnerFunction = fabricInnerFunction;
+    }
+
+    public CompletableFuture<Ab.BroadcastResponse> broadcast(
+            Orderer orderer, Common.Envelope envelope) {
+        return broadcast(orderer, envelope, 0);
+    }
+
+    /**
+     * Queue an envelope for the orderer. The future fails right away if the queue is full, and
+     * after the orderer wait time or at the deadline (0 for none) if no response arrived, queueing
+     * included. Either way the orderer is counted as failing, so pass the budget of this attempt,
+     * not the whole transaction deadline, to leave time for another orderer.
+     */
+    public CompletableFuture<Ab.BroadcastResponse> broadcast(
+            Orderer orderer, Common.Envelope envelope, long deadline) {
+        OrdererStream stream = streams.get(orderer);
+        if (stream == null) {
+            stream = new OrdererStream(orderer);
+            OrdererStream exists = streams.putIfAbsent(orderer, stream);
+            if (exists != null) {
+                stream = exists;
+            }
+        }
+        return stream.send(envelope, deadline);
+    }
+
+    /** The orderers in the order they should be tried for the next transaction. */
+    public List<Orderer> select(Collection<Orderer> orderers) {
+        return selector.select(orderers);
+    }
+
+    public int getWindowSize(Orderer orderer) {
+        OrdererStream stream = streams.get(orderer);
+        return stream == null ? 0 : stream.window.getSize();
+    }
+
+    public void close() {
+        for (OrdererStream stream : streams.values()) {
+            stream.close();
+        }
+        streams.clear();
+    }
+
+    private static class Submission {
+        private Common.Envelope envelope;
+        private CompletableFuture<Ab.BroadcastResponse> future = new CompletableFuture<>();
+        private BroadcastCall call; // null while queued
+        private long queueTime = System.currentTimeMillis();
+        private long sendTime;
+        private long deadline;
+        private int requeues = 0;
+
+        Submission(Common.Envelope envelope, long deadline) {
+            this.envelope = envelope;
+            this.deadline = deadline;
+        }
+    }
+
+    private class OrdererStream {
+        private Orderer orderer;
+        private long waitTime;
+        private ManagedChannel managedChannel;
+        private BroadcastCall call;
+        private AimdWindow window = new AimdWindow();
+        private int inFlight = 0;
+        private Deque<Submission> queued = new LinkedList<>();
+
+        OrdererStream(Orderer orderer) {
+            this.orderer = orderer;
+            this.waitTime = DEFAULT_ORDERER_WAIT_TIME;
+            Object waitTimeProperty = orderer.getProperties().get(ORDERER_WAIT_TIME_PROPERTY);
+            if (waitTimeProperty != null) {
+                this.waitTime = Long.parseLong(waitTimeProperty.toString());
+            }
+        }
+
+        CompletableFuture<Ab.BroadcastResponse> send(Common.Envelope envelope, long deadline) {
+            Submission submission = new Submission(envelope, deadline);
+            synchronized (this) {
+                if (queued.size() >= MAX_QUEUED_ENVELOPES) {
+                    selector.onError(orderer);
+                    submission.future.completeExceptionally(
+                            new Exception(
+                                    "Too many envelopes queued for "
+                                            + orderer.getName()
+                                            + ", window: "
+                                            + window.getSize()));
+                    return submission.future;
+                }
+                queued.add(submission);
+            }
+
+            Timeout timeout =
+                    timeoutHandler.newTimeout(
+                            new TimerTask() {
+                                @Override
+                                public void run(Timeout timeout) throws Exception {
+                                    onTimeout(submission);
+                                }
+                            },
+                            Math.min(waitTime, TransactionDeadline.remaining(deadline)),
+                            TimeUnit.MILLISECONDS);
+            submission.future.whenComplete((response, throwable) -> timeout.cancel());
+
+            dispatch();
+            return submission.future;
+        }
+
+        /** Send queued envelopes while the window has room. */
+        void dispatch() {
+            List<Submission> failed = new LinkedList<>();
+            List<Submission> expired = new LinkedList<>();
+            Exception exception = null;
+            synchronized (this) {
+                while (inFlight < window.getSize() && !queued.isEmpty()) {
+                    Submission submission = queued.poll();
+                    if (submission.future.isDone()) {
+                        continue; // timed out while queued
+                    }
+                    if (TransactionDeadline.isExpired(submission.deadline)) {
+                        expired.add(submission); // nobody waits for it, don't use the window
+                        continue;
+                    }
+
+                    try {
+                        if (call == null || call.broken) {
+                            call = new BroadcastCall(this, openChannel());
+                        }
+                        // Queue and send in one step, the response order is the send order
+                        submission.call = call;
+                        submission.sendTime = System.currentTimeMillis();
+                        call.pending.add(submission);
+                        inFlight++;
+                        call.requestObserver.onNext(submission.envelope);
+                    } catch (Exception e) {
+                        if (submission.call != null && submission.call.pending.remove(submission)) {
+                            inFlight--;
+                        }
+                        failed.add(submission);
+                        exception = e;
+                    }
+                }
+            }
+
+            if (!failed.isEmpty() || !expired.isEmpty()) {
+                selector.onError(orderer); // expired: the window stayed full until its deadline
+            }
+            for (Submission submission : failed) {
+                submission.future.completeExceptionally(exception);
+            }
+            for (Submission submission : expired) {
+                submission.future.completeExceptionally(
+                        new TimeoutException(
+                                "Deadline exceeded while queued for " + orderer.getName()));
+            }
+        }
+
+        private void onTimeout(Submission submission) {
+            TimeoutException exception =
+                    new TimeoutException(
+                            "Wait broadcast response of " + orderer.getName() + " timeout");
+            BroadcastCall sentOn;
+            synchronized (this) {
+                sentOn = submission.call;
+                if (sentOn == null) {
+                    queued.remove(submission);
+                }
+            }
+
+            // Whichever bound fired, the orderer held the envelope too long: a sent one ends its
+            // call, so the window is freed and the envelopes behind it go on a new stream
+            if (sentOn == null) {
+                selector.onError(orderer);
+                submission.future.completeExceptionally(exception);
+            } else if (!submission.future.isDone()) {
+                sentOn.timeout(submission, exception);
+            }
+        }
+
+        private ManagedChannel openChannel() throws Exception {
+            if (managedChannel == null || managedChannel.isShutdown()) {
+                managedChannel = fabricInnerFunction.newManagedChannel(orderer);
+                logger.info("Broadcast channel to {} opened", orderer.getName());
+            }
+            return managedChannel;
+        }
+
+        synchronized void close() {
+            if (call != null) {
+                call.fail(
+                        new Exception("Broadcast stream to " + orderer.getName() + " closed"),
+                        false);
+            }
+            if (managedChannel != null) {
+                managedChannel.shutdown();
+            }
+        }
+    }
+
+    /** One Broadcast call, its state is guarded by the owning OrdererStream. */
+    private class BroadcastCall implements StreamObserver<Ab.BroadcastResponse> {
+        private OrdererStream stream;
+        private StreamObserver<Common.Envelope> requestObserver;
+        private LinkedList<Submission> pending = new LinkedList<>();
+        private boolean broken = false;
+
+        BroadcastCall(OrdererStream stream, ManagedChannel managedChannel) {
+            this.stream = stream;
+            this.requestObserver = AtomicBroadcastGrpc.newStub(managedChannel).broadcast(this);
+        }
+
+        @Override
+        public void onNext(Ab.BroadcastResponse response) {
+            Submission submission;
+            List<Submission> failed = new LinkedList<>();
+            synchronized (stream) {
+                submission = pending.poll();
+                if (submission != null) {
+                    stream.inFlight--;
+                    long now = System.currentTimeMillis();
+                    if (response.getStatus() == Common.Status.SERVICE_UNAVAILABLE) {
+                        stream.window.onCongestion();
+                        selector.onError(stream.orderer);
+                    } else if (response.getStatus() == Common.Status.SUCCESS) {
+                        stream.window.onAck(now - submission.sendTime);
+                        selector.onSuccess(stream.orderer, now - submission.queueTime);
+                    }
+                    if (response.getStatus() != Common.Status.SUCCESS) {
+                        // the orderer closes the stream, the envelopes behind are not processed
+                        failed = abandon(true, response.getStatus().toString());
+                    }
+                }
+            }
+            if (submission == null) {
+                logger.warn("Unexpected broadcast response: {}", response.getStatus());
+                return;
+            }
+
+            submission.future.complete(response);
+            failRequeueLimit(failed);
+            stream.dispatch();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            logger.warn("Broadcast stream to {} failed: {}", stream.orderer.getName(), throwable);
+            fail(throwable, true);
+        }
+
+        @Override
+        public void onCompleted() {
+            fail(new Exception("Broadcast stream closed by " + stream.orderer.getName()), true);
+        }
+
+        /** The stream failed, its unanswered envelopes are sent again or, if not requeue, fail. */
+        void fail(Throwable throwable, boolean requeue) {
+            List<Submission> failed;
+            synchronized (stream) {
+                boolean hadPending = !pending.isEmpty();
+                if (!broken) {
+                    selector.onError(stream.orderer);
+                }
+                failed = abandon(requeue, throwable.toString());
+                if (hadPending) {
+                    stream.window.onCongestion();
+                }
+            }
+
+            for (Submission submission : failed) {
+                submission.future.completeExceptionally(throwable);
+            }
+            stream.dispatch();
+        }
+
+        /** An envelope missed its response, it fails and the envelopes behind it are sent again. */
+        void timeout(Submission submission, Throwable throwable) {
+            List<Submission> failed;
+            synchronized (stream) {
+                if (pending.remove(submission)) {
+                    stream.inFlight--;
+                }
+                if (!broken) {
+                    selector.onError(stream.orderer);
+                }
+                failed = abandon(true, throwable.toString());
+                stream.window.onCongestion();
+            }
+
+            submission.future.completeExceptionally(throwable);
+            failRequeueLimit(failed);
+            stream.dispatch();
+        }
+
+        /**
+         * Stop using this call and take its pending envelopes back, guarded by the stream. They go
+         * in front of the queue in their order if requeue, the ones returned must fail.
+         */
+        private List<Submission> abandon(boolean requeue, String reason) {
+            if (!broken) {
+                broken = true;
+                // responses of this call can no longer be matched, cancel it
+                requestObserver.onError(Status.CANCELLED.withDescription(reason).asException());
+            }
+
+            List<Submission> failed = new LinkedList<>();
+            Iterator<Submission> iterator = pending.descendingIterator();
+            while (iterator.hasNext()) {
+                Submission submission = iterator.next();
+                if (!requeue || submission.requeues >= MAX_REQUEUES) {
+                    failed.add(0, submission);
+                    continue;
+                }
+                submission.requeues++;
+                submission.call = null;
+                stream.queued.addFirst(submission);
+            }
+            stream.inFlight -= pending.size();
+            pending.clear();
+            return failed;
+        }
+
+        private void failRequeueLimit(List<Submission> failed) {
+            for (Submission submission : failed) {
+                submission.future.completeExceptionally(
+                        new Exception(
+                                "Broadcast stream to "
+                                        + stream.orderer.getName()
+                                        + " failed "
+                                        + (MAX_REQUEUES + 1)
+                                        + " times"));
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.cayden.sample.fabric;
+
+import com.webank.wecross.stub.Request;
+import org.hyperledger.fabric.protos.common.Common;
+
+/**
+ * Orderer request which carries the signed envelope and its txID, and the deadlines of the
+ * ordering and commit phases. Like EndorserRequest, the data bytes are only serialized when
+ * someone asks for them, in process the envelope goes to the orderer stream as it is. A plain
+ * Request from another process is parsed once and gets the default transaction timeout of the
+ * resource.
+ */
+public class OrdererRequest extends Request {
+    private Common.Envelope envelope;
+    private String txID;
+    private long orderDeadline;
+    private long commitDeadline;
+
+    public OrdererRequest(Common.Envelope envelope, String txID) {
+        this.envelope = envelope;
+        this.txID = txID;
+    }
+
+    /** The request itself if it is an OrdererRequest, otherwise its data parsed once. */
+    public static OrdererRequest from(Request request) throws Exception {
+        if (request instanceof OrdererRequest) {
+            return (OrdererRequest) request;
+        }
+
+        Common.Envelope envelope = Common.Envelope.parseFrom(request.getData());
+        Common.Payload payload = Common.Payload.parseFrom(envelope.getPayload());
+        Common.ChannelHeader channelHeader =
+                Common.ChannelHeader.parseFrom(payload.getHeader().getChannelHeader());
+
+        OrdererRequest ordererRequest = new OrdererRequest(envelope, channelHeader.getTxId());
+        ordererRequest.setType(request.getType());
+        ordererRequest.setResourceInfo(request.getResourceInfo());
+        ordererRequest.setData(request.getData());
+        return ordererRequest;
+    }
+
+    @Override
+    public byte[] getData() {
+        byte[] data = super.getData();
+        if (data == null) {
+            data = envelope.toByteArray();
+            super.setData(data);
+        }
+        return data;
+    }
+
+    public Common.Envelope getEnvelope() {
+        return envelope;
+    }
+
+    public String getTxID() {
+        return txID;
+    }
+
+    public long getOrderDeadline() {
+        return orderDeadline;
+    }
+
+    public void setOrderDeadline(long orderDeadline) {
+        this.orderDeadline = orderDeadline;
+    }
+
+    public long getCommitDeadline() {
+        return commitDeadline;
+    }
+
+    public void setCommitDeadline(long commitDeadline) {
+        this.commitDeadline = commitDeadline;
+    }
+}
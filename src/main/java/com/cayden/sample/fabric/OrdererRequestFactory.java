@@ -1,14 +1,18 @@
 package com.cayden.sample.fabric;
 
-import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import com.cayden.sample.account.FabricAccount;
 import com.cayden.sample.common.FabricType;
 import com.webank.wecross.stub.Account;
-import com.webank.wecross.stub.Request;
 import org.hyperledger.fabric.protos.common.Common;
 
 public class OrdererRequestFactory {
-    public static Request build(Account account, byte[] ordererPayloadToSign) throws Exception {
+    /**
+     * The payload and signature are wrapped, not copied, so the payload built by the connection is
+     * the one which reaches the orderer stream. Neither array may change afterwards.
+     */
+    public static OrdererRequest build(Account account, String txID, byte[] ordererPayloadToSign)
+            throws Exception {
         if (!account.getType().equals(FabricType.Account.FABRIC_ACCOUNT)) {
             throw new Exception("Illegal account type for fabric call: " + account.getType());
         }
@@ -19,11 +23,9 @@ public class OrdererRequestFactory {
 
         Common.Envelope envelope =
                 Common.Envelope.newBuilder()
-                        .setPayload(ByteString.copyFrom(ordererPayloadToSign))
-                        .setSignature(ByteString.copyFrom(sign))
+                        .setPayload(UnsafeByteOperations.unsafeWrap(ordererPayloadToSign))
+                        .setSignature(UnsafeByteOperations.unsafeWrap(sign))
                         .build();
-        Request request = new Request();
-        request.setData(envelope.toByteArray());
-        return request;
+        return new OrdererRequest(envelope, txID);
     }
 }
@@ -0,0 +1,127 @@
+package com.cayden.sample.fabric;
+
+import org.hyperledger.fabric.sdk.Orderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Orders the orderers of a channel for a broadcast. The preferred orderer only changes when it
+ * fails or another one is clearly faster, so consecutive transactions share one stream. An orderer
+ * failing FAILURE_THRESHOLD times in a row is out of rotation for COOLDOWN. Afterwards it is put
+ * back right behind the healthy orderers for one transaction, so it is probed only by a
+ * transaction they failed, never ahead of them; a success brings it back.
+ */
+public class OrdererSelector {
+    private Logger logger = LoggerFactory.getLogger(OrdererSelector.class);
+
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long COOLDOWN = 30000; // ms
+    private static final double SWITCH_FACTOR = 0.8; // another orderer must be 20% faster
+    private static final double ALPHA = 0.2;
+
+    private Map<Orderer, Health> healths = new ConcurrentHashMap<>();
+    private volatile Orderer preferred;
+
+    /**
+     * Orderers to try in turn. Orderers with an open circuit come last, one whose cooldown is over
+     * right before them, so they are only tried when all others failed.
+     */
+    public List<Orderer> select(Collection<Orderer> orderers) {
+        long now = System.currentTimeMillis();
+        List<Orderer> available = new ArrayList<>(orderers.size());
+        List<Orderer> open = new ArrayList<>(0);
+        Orderer probe = null;
+        Map<Orderer, Double> latencies = new HashMap<>();
+        for (Orderer orderer : orderers) {
+            Health health = getHealth(orderer);
+            synchronized (health) {
+                latencies.put(orderer, health.latency);
+                if (health.failures < FAILURE_THRESHOLD) {
+                    available.add(orderer);
+                } else if (probe == null && now >= health.openUntil) {
+                    health.openUntil = now + COOLDOWN; // one probe per cooldown
+                    probe = orderer;
+                } else {
+                    open.add(orderer);
+                }
+            }
+        }
+
+        // Unknown latency is 0, new orderers are tried early to learn it
+        available.sort((a, b) -> Double.compare(latencies.get(a), latencies.get(b)));
+
+        Orderer current = preferred;
+        if (current != null && !available.isEmpty() && available.get(0) != current) {
+            int index = available.indexOf(current);
+            if (index > 0
+                    && latencies.get(available.get(0))
+                            >= latencies.get(current) * SWITCH_FACTOR) {
+                available.add(0, available.remove(index));
+            }
+        }
+        if (!available.isEmpty() && available.get(0) != current) {
+            preferred = available.get(0);
+            logger.debug("Preferred orderer: {}", preferred.getName());
+        }
+
+        if (probe != null) {
+            available.add(probe); // a dead orderer must not cost a healthy transaction time
+        }
+        available.addAll(open);
+        return available;
+    }
+
+    public void onSuccess(Orderer orderer, long latency) {
+        Health health = getHealth(orderer);
+        synchronized (health) {
+            if (health.failures >= FAILURE_THRESHOLD) {
+                logger.info("Orderer {} is back", orderer.getName());
+            }
+            health.failures = 0;
+            health.latency =
+                    health.latency == 0 ? latency : ALPHA * latency + (1 - ALPHA) * health.latency;
+        }
+    }
+
+    public void onError(Orderer orderer) {
+        Health health = getHealth(orderer);
+        synchronized (health) {
+            health.failures++;
+            if (health.failures == FAILURE_THRESHOLD) {
+                logger.warn(
+                        "Orderer {} failed {} times, out of rotation for {} ms",
+                        orderer.getName(),
+                        FAILURE_THRESHOLD,
+                        COOLDOWN);
+            }
+            if (health.failures >= FAILURE_THRESHOLD) {
+                health.openUntil = System.currentTimeMillis() + COOLDOWN;
+            }
+        }
+    }
+
+    private Health getHealth(Orderer orderer) {
+        Health health = healths.get(orderer);
+        if (health == null) {
+            health = new Health();
+            Health exists = healths.putIfAbsent(orderer, health);
+            if (exists != null) {
+                health = exists;
+            }
+        }
+        return health;
+    }
+
+    private static class Health {
+        private double latency = 0; // ms, smoothed time from queueing to ack
+        private int failures = 0; // in a row
+        private long openUntil = 0;
+    }
+}
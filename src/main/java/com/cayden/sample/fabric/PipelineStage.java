@@ -0,0 +1,138 @@
+package com.cayden.sample.fabric;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One stage of the TransactionPipeline: a fixed number of threads and a bounded queue. A full
+ * queue rejects the task with RejectedExecutionException instead of growing, the caller fails the
+ * transaction. The time tasks wait in the queue and run is counted, so a stage which can't keep up
+ * shows it.
+ */
+public class PipelineStage implements Executor {
+    private static final ThreadLocal<PipelineStage> currentStage = new ThreadLocal<>();
+
+    private String name;
+    private ThreadPoolExecutor executor;
+
+    private AtomicLong completed = new AtomicLong();
+    private AtomicLong rejected = new AtomicLong();
+    private AtomicInteger peakQueueSize = new AtomicInteger();
+    private AtomicLong queueTime = new AtomicLong(); // ns, sum of all completed tasks
+    private AtomicLong runTime = new AtomicLong(); // ns, sum of all completed tasks
+
+    public PipelineStage(String name, int threads, int queueCapacity) {
+        this.name = name;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor =
+                new ThreadPoolExecutor(
+                        threads,
+                        threads,
+                        0,
+                        TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(queueCapacity),
+                        runnable -> {
+                            Thread thread =
+                                    new Thread(
+                                            () -> {
+                                                currentStage.set(this);
+                                                runnable.run();
+                                            },
+                                            "fabric-" + name + "-" + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        long queued = System.nanoTime();
+        try {
+            executor.execute(
+                    () -> {
+                        long started = System.nanoTime();
+                        try {
+                            task.run();
+                        } finally {
+                            queueTime.addAndGet(started - queued);
+                            runTime.addAndGet(System.nanoTime() - started);
+                            completed.incrementAndGet();
+                        }
+                    });
+            int queueSize = getQueueSize();
+            if (queueSize > peakQueueSize.get()) {
+                peakQueueSize.accumulateAndGet(queueSize, Math::max);
+            }
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException(
+                    "Pipeline stage " + name + " is full, queued: " + getQueueSize());
+        }
+    }
+
+    /** True if the calling thread is one of the stage's own. */
+    public boolean isCurrentThread() {
+        return currentStage.get() == this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /** The deepest the queue has been. */
+    public int getPeakQueueSize() {
+        return peakQueueSize.get();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /** Average ms a task waited in the queue. */
+    public double getAverageQueueTime() {
+        long count = completed.get();
+        return count == 0 ? 0 : queueTime.get() / 1e6 / count;
+    }
+
+    /** Average ms a task ran. */
+    public double getAverageRunTime() {
+        long count = completed.get();
+        return count == 0 ? 0 : runTime.get() / 1e6 / count;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s{threads: %d/%d, queued: %d (peak %d), completed: %d, rejected: %d, queue: %.2fms, run: %.2fms}",
+                name,
+                getActiveCount(),
+                executor.getMaximumPoolSize(),
+                getQueueSize(),
+                getPeakQueueSize(),
+                getCompleted(),
+                getRejected(),
+                getAverageQueueTime(),
+                getAverageRunTime());
+    }
+}
@@ -0,0 +1,86 @@
+package com.cayden.sample.fabric;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/** Consistent endorsements whose endorser MSPs satisfy the chaincode endorsement policy. */
+public class PolicyRequirement implements EndorsementRequirement {
+    private EndorsementPolicy policy;
+    private Map<Peer, String> peerMspIds;
+
+    public PolicyRequirement(EndorsementPolicy policy, Map<Peer, String> peerMspIds) {
+        this.policy = policy;
+        this.peerMspIds = peerMspIds;
+    }
+
+    @Override
+    public boolean isSatisfied(Collection<ProposalResponse> successResponses) {
+        return !select(successResponses).isEmpty();
+    }
+
+    @Override
+    public boolean isReachable(
+            Collection<ProposalResponse> successResponses, Collection<Peer> pendingPeers) {
+        Map<String, Integer> pendingCounts = new HashMap<>();
+        for (Peer peer : pendingPeers) {
+            String mspId = peerMspIds.get(peer);
+            if (mspId == null) {
+                return true; // could be any organization
+            }
+            Integer count = pendingCounts.get(mspId);
+            pendingCounts.put(mspId, count == null ? 1 : count + 1);
+        }
+
+        List<List<ProposalResponse>> groups = groupByPayload(successResponses);
+        if (groups.isEmpty()) {
+            return policy.isSatisfiedBy(pendingCounts);
+        }
+        for (List<ProposalResponse> group : groups) {
+            Map<String, Integer> mspCounts = EndorsementPolicy.countMspIds(group);
+            for (Map.Entry<String, Integer> entry : pendingCounts.entrySet()) {
+                Integer count = mspCounts.get(entry.getKey());
+                mspCounts.put(
+                        entry.getKey(),
+                        count == null ? entry.getValue() : count + entry.getValue());
+            }
+            if (policy.isSatisfiedBy(mspCounts)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Collection<ProposalResponse> select(Collection<ProposalResponse> successResponses) {
+        for (List<ProposalResponse> group : groupByPayload(successResponses)) {
+            if (policy.isSatisfiedBy(EndorsementPolicy.countMspIds(group))) {
+                return group;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private List<List<ProposalResponse>> groupByPayload(
+            Collection<ProposalResponse> successResponses) {
+        Map<ByteString, List<ProposalResponse>> groups = new LinkedHashMap<>();
+        for (ProposalResponse response : successResponses) {
+            ByteString payload = response.getProposalResponse().getPayload();
+            List<ProposalResponse> group = groups.get(payload);
+            if (group == null) {
+                group = new LinkedList<>();
+                groups.put(payload, group);
+            }
+            group.add(response);
+        }
+        return new LinkedList<>(groups.values());
+    }
+}
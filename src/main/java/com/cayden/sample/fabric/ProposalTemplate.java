@@ -0,0 +1,193 @@
+package com.cayden.sample.fabric;
+
+import com.google.protobuf.ByteString;
+import com.cayden.sample.account.FabricAccount;
+import com.cayden.sample.common.FabricType;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.protos.peer.Chaincode;
+import org.hyperledger.fabric.protos.peer.FabricProposal;
+import org.hyperledger.fabric.sdk.helper.Utils;
+import org.hyperledger.fabric.sdk.security.CryptoSuite;
+import org.hyperledger.fabric.sdk.transaction.ProtoUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pre-built parts of an endorser proposal for one (channel, chaincode, chaincode type, account).
+ * Building a proposal from a template only fills in nonce, txID, timestamp, function and args,
+ * which is the same proposal the SDK ProposalBuilder produces for a TransactionProposalRequest.
+ */
+public class ProposalTemplate {
+    private static final int MAX_CACHED_TEMPLATES = 1024;
+    private static Map<Key, ProposalTemplate> templates = new ConcurrentHashMap<>();
+
+    private String channelName;
+    private Chaincode.ChaincodeID chaincodeID;
+    private Chaincode.ChaincodeSpec.Type chaincodeSpecType;
+    private FabricProposal.ChaincodeHeaderExtension chaincodeHeaderExtension;
+    private ByteString creator;
+    private CryptoSuite cryptoSuite;
+
+    private ProposalTemplate(
+            String channelName,
+            String chainCodeName,
+            org.hyperledger.fabric.sdk.TransactionRequest.Type chainCodeType,
+            ByteString creator)
+            throws Exception {
+        this.channelName = channelName;
+        this.chaincodeID = Chaincode.ChaincodeID.newBuilder().setName(chainCodeName).build();
+        this.chaincodeSpecType = toChaincodeSpecType(chainCodeType);
+        this.chaincodeHeaderExtension =
+                FabricProposal.ChaincodeHeaderExtension.newBuilder()
+                        .setChaincodeId(chaincodeID)
+                        .build();
+        this.creator = creator;
+        this.cryptoSuite = CryptoSuite.Factory.getCryptoSuite();
+    }
+
+    public static ProposalTemplate get(FabricAccount account, Map<Object, Object> properties)
+            throws Exception {
+        Key key =
+                new Key(
+                        (String) properties.get(FabricType.ResourceInfoProperty.CHANNEL_NAME),
+                        (String) properties.get(FabricType.ResourceInfoProperty.CHAINCODE_NAME),
+                        (String) properties.get(FabricType.ResourceInfoProperty.CHAINCODE_TYPE),
+                        account.getSerializedIdentity());
+
+        ProposalTemplate template = templates.get(key);
+        if (template == null) {
+            ResourceInfoProperty resourceInfoProperty = ResourceInfoProperty.parseFrom(properties);
+            template =
+                    new ProposalTemplate(
+                            resourceInfoProperty.getChannelName(),
+                            resourceInfoProperty.getChainCodeName(),
+                            resourceInfoProperty.getChainCodeType(),
+                            key.creator);
+
+            if (templates.size() >= MAX_CACHED_TEMPLATES) {
+                templates.clear();
+            }
+            ProposalTemplate exists = templates.putIfAbsent(key, template);
+            if (exists != null) {
+                template = exists;
+            }
+        }
+        return template;
+    }
+
+    public FabricProposal.Proposal newProposal(String fcn, String[] args) throws Exception {
+        ByteString nonce = newNonce();
+        return newProposal(fcn, args, nonce, newTxID(nonce));
+    }
+
+    public static ByteString newNonce() {
+        return ByteString.copyFrom(Utils.generateNonce());
+    }
+
+    public String newTxID(ByteString nonce) throws Exception {
+        byte[] txh = cryptoSuite.hash(nonce.concat(creator).toByteArray());
+        return new String(Utils.toHexString(txh));
+    }
+
+    public FabricProposal.Proposal newProposal(
+            String fcn, String[] args, ByteString nonce, String txID) throws Exception {
+        Common.ChannelHeader channelHeader =
+                ProtoUtils.createChannelHeader(
+                        Common.HeaderType.ENDORSER_TRANSACTION,
+                        txID,
+                        channelName,
+                        0,
+                        ProtoUtils.getCurrentFabricTimestamp(),
+                        chaincodeHeaderExtension,
+                        null);
+
+        Common.SignatureHeader signatureHeader =
+                Common.SignatureHeader.newBuilder().setCreator(creator).setNonce(nonce).build();
+
+        Common.Header header =
+                Common.Header.newBuilder()
+                        .setSignatureHeader(signatureHeader.toByteString())
+                        .setChannelHeader(channelHeader.toByteString())
+                        .build();
+
+        // First is method, other is args
+        List<ByteString> allArgs = new ArrayList<>(args.length + 1);
+        allArgs.add(ByteString.copyFrom(fcn, StandardCharsets.UTF_8));
+        for (String arg : args) {
+            allArgs.add(ByteString.copyFrom(arg, StandardCharsets.UTF_8));
+        }
+
+        Chaincode.ChaincodeInvocationSpec chaincodeInvocationSpec =
+                Chaincode.ChaincodeInvocationSpec.newBuilder()
+                        .setChaincodeSpec(
+                                Chaincode.ChaincodeSpec.newBuilder()
+                                        .setType(chaincodeSpecType)
+                                        .setChaincodeId(chaincodeID)
+                                        .setInput(
+                                                Chaincode.ChaincodeInput.newBuilder()
+                                                        .addAllArgs(allArgs)))
+                        .build();
+
+        FabricProposal.ChaincodeProposalPayload payload =
+                FabricProposal.ChaincodeProposalPayload.newBuilder()
+                        .setInput(chaincodeInvocationSpec.toByteString())
+                        .build();
+
+        return FabricProposal.Proposal.newBuilder()
+                .setHeader(header.toByteString())
+                .setPayload(payload.toByteString())
+                .build();
+    }
+
+    private static Chaincode.ChaincodeSpec.Type toChaincodeSpecType(
+            org.hyperledger.fabric.sdk.TransactionRequest.Type type) {
+        switch (type) {
+            case JAVA:
+                return Chaincode.ChaincodeSpec.Type.JAVA;
+            case GO_LANG:
+                return Chaincode.ChaincodeSpec.Type.GOLANG;
+            case NODE:
+            default:
+                return Chaincode.ChaincodeSpec.Type.NODE;
+        }
+    }
+
+    private static class Key {
+        private String channelName;
+        private String chainCodeName;
+        private String chainCodeType;
+        private ByteString creator;
+
+        Key(String channelName, String chainCodeName, String chainCodeType, ByteString creator) {
+            this.channelName = channelName;
+            this.chainCodeName = chainCodeName;
+            this.chainCodeType = chainCodeType;
+            this.creator = creator;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(channelName, key.channelName)
+                    && Objects.equals(chainCodeName, key.chainCodeName)
+                    && Objects.equals(chainCodeType, key.chainCodeType)
+                    && creator.equals(key.creator);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(channelName, chainCodeName, chainCodeType, creator);
+        }
+    }
+}
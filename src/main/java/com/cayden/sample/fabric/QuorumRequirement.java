@@ -0,0 +1,66 @@
+package com.cayden.sample.fabric;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/** At least quorum successful responses with the same proposal response payload. */
+public class QuorumRequirement implements EndorsementRequirement {
+    private int quorum;
+
+    public QuorumRequirement(int quorum) {
+        this.quorum = Math.max(quorum, 1);
+    }
+
+    @Override
+    public boolean isSatisfied(Collection<ProposalResponse> successResponses) {
+        return largestGroup(successResponses).size() >= quorum;
+    }
+
+    @Override
+    public boolean isReachable(
+            Collection<ProposalResponse> successResponses, Collection<Peer> pendingPeers) {
+        return largestGroup(successResponses).size() + pendingPeers.size() >= quorum;
+    }
+
+    @Override
+    public Collection<ProposalResponse> select(Collection<ProposalResponse> successResponses) {
+        List<ProposalResponse> group = largestGroup(successResponses);
+        return group.size() >= quorum ? group : Collections.emptyList();
+    }
+
+    public int getQuorum() {
+        return quorum;
+    }
+
+    private List<ProposalResponse> largestGroup(Collection<ProposalResponse> successResponses) {
+        if (successResponses.size() <= 1) {
+            return new LinkedList<>(successResponses);
+        }
+
+        // Endorsements are only consistent if the whole proposal response payload is the same
+        Map<ByteString, List<ProposalResponse>> groups = new HashMap<>();
+        List<ProposalResponse> largest = Collections.emptyList();
+        for (ProposalResponse response : successResponses) {
+            ByteString payload = response.getProposalResponse().getPayload();
+            List<ProposalResponse> group = groups.get(payload);
+            if (group == null) {
+                group = new LinkedList<>();
+                groups.put(payload, group);
+            }
+            group.add(response);
+
+            if (group.size() > largest.size()) {
+                largest = group;
+            }
+        }
+        return largest;
+    }
+}
@@ -11,6 +11,13 @@ public class ResourceInfoProperty {
     private String chainCodeName;
     private org.hyperledger.fabric.sdk.TransactionRequest.Type chainCodeType;
     private long proposalWaitTime;
+    private long transactionTimeout = TransactionDeadline.DEFAULT_TIMEOUT;
+    private long mvccRetries = 0;
+    private long mvccRetryBackoff = FabricStubConfigParser.DEFAULT_MVCC_RETRY_BACKOFF;
+    private String coalesceMethod; // null if writes are not coalesced
+    private String coalesceBatchMethod;
+    private long coalesceWindow = FabricStubConfigParser.DEFAULT_COALESCE_WINDOW;
+    private long coalesceSize = FabricStubConfigParser.DEFAULT_COALESCE_SIZE;
 
     public static ResourceInfoProperty build() {
         return new ResourceInfoProperty();
@@ -42,6 +49,30 @@ public class ResourceInfoProperty {
         return this;
     }
 
+    public ResourceInfoProperty transactionTimeout(long transactionTimeout) {
+        this.transactionTimeout = transactionTimeout;
+        return this;
+    }
+
+    public ResourceInfoProperty mvccRetries(long mvccRetries) {
+        this.mvccRetries = mvccRetries;
+        return this;
+    }
+
+    public ResourceInfoProperty mvccRetryBackoff(long mvccRetryBackoff) {
+        this.mvccRetryBackoff = mvccRetryBackoff;
+        return this;
+    }
+
+    public ResourceInfoProperty coalesce(
+            String coalesceMethod, String coalesceBatchMethod, long window, long size) {
+        this.coalesceMethod = coalesceMethod;
+        this.coalesceBatchMethod = coalesceBatchMethod;
+        this.coalesceWindow = window;
+        this.coalesceSize = size;
+        return this;
+    }
+
     public Map<Object, Object> toMap() {
         Map<Object, Object> properties = new HashMap<>();
         properties.put(FabricType.ResourceInfoProperty.CHANNEL_NAME, channelName);
@@ -52,11 +83,58 @@ public class ResourceInfoProperty {
         properties.put(
                 FabricType.ResourceInfoProperty.PROPOSAL_WAIT_TIME,
                 Long.toString(proposalWaitTime, 10));
+        properties.put(
+                FabricType.ResourceInfoProperty.TRANSACTION_TIMEOUT,
+                Long.toString(transactionTimeout, 10));
+        properties.put(
+                FabricType.ResourceInfoProperty.MVCC_RETRIES, Long.toString(mvccRetries, 10));
+        properties.put(
+                FabricType.ResourceInfoProperty.MVCC_RETRY_BACKOFF,
+                Long.toString(mvccRetryBackoff, 10));
+        if (coalesceMethod != null) {
+            properties.put(FabricType.ResourceInfoProperty.COALESCE_METHOD, coalesceMethod);
+            properties.put(
+                    FabricType.ResourceInfoProperty.COALESCE_BATCH_METHOD, coalesceBatchMethod);
+            properties.put(
+                    FabricType.ResourceInfoProperty.COALESCE_WINDOW,
+                    Long.toString(coalesceWindow, 10));
+            properties.put(
+                    FabricType.ResourceInfoProperty.COALESCE_SIZE, Long.toString(coalesceSize, 10));
+        }
         return properties;
     }
 
     public static ResourceInfoProperty parseFrom(Map<Object, Object> properties) throws Exception {
-        return build().channelName(
+        ResourceInfoProperty resourceInfoProperty = build();
+        String transactionTimeout =
+                (String) properties.get(FabricType.ResourceInfoProperty.TRANSACTION_TIMEOUT);
+        if (transactionTimeout != null) {
+            resourceInfoProperty.transactionTimeout(Long.parseLong(transactionTimeout, 10));
+        }
+        String mvccRetries = (String) properties.get(FabricType.ResourceInfoProperty.MVCC_RETRIES);
+        if (mvccRetries != null) {
+            resourceInfoProperty.mvccRetries(Long.parseLong(mvccRetries, 10));
+        }
+        String mvccRetryBackoff =
+                (String) properties.get(FabricType.ResourceInfoProperty.MVCC_RETRY_BACKOFF);
+        if (mvccRetryBackoff != null) {
+            resourceInfoProperty.mvccRetryBackoff(Long.parseLong(mvccRetryBackoff, 10));
+        }
+        String coalesceMethod =
+                (String) properties.get(FabricType.ResourceInfoProperty.COALESCE_METHOD);
+        if (coalesceMethod != null) {
+            String window =
+                    (String) properties.get(FabricType.ResourceInfoProperty.COALESCE_WINDOW);
+            String size = (String) properties.get(FabricType.ResourceInfoProperty.COALESCE_SIZE);
+            resourceInfoProperty.coalesce(
+                    coalesceMethod,
+                    (String) properties.get(FabricType.ResourceInfoProperty.COALESCE_BATCH_METHOD),
+                    Long.parseLong(window, 10),
+                    Long.parseLong(size, 10));
+        }
+
+        return resourceInfoProperty
+                .channelName(
                         (String) properties.get(FabricType.ResourceInfoProperty.CHANNEL_NAME))
                 .chainCodeName(
                         (String) properties.get(FabricType.ResourceInfoProperty.CHAINCODE_NAME))
@@ -86,6 +164,34 @@ public class ResourceInfoProperty {
         return proposalWaitTime;
     }
 
+    public long getTransactionTimeout() {
+        return transactionTimeout;
+    }
+
+    public long getMvccRetries() {
+        return mvccRetries;
+    }
+
+    public long getMvccRetryBackoff() {
+        return mvccRetryBackoff;
+    }
+
+    public String getCoalesceMethod() {
+        return coalesceMethod;
+    }
+
+    public String getCoalesceBatchMethod() {
+        return coalesceBatchMethod;
+    }
+
+    public long getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    public long getCoalesceSize() {
+        return coalesceSize;
+    }
+
     private static org.hyperledger.fabric.sdk.TransactionRequest.Type stringTochainCodeType(
             String type) {
         switch (type) {
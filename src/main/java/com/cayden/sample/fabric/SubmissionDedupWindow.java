@@ -0,0 +1,179 @@
+package com.cayden.sample.fabric;
+
+import com.cayden.sample.common.FabricType;
+import com.webank.wecross.stub.Driver;
+import com.webank.wecross.stub.TransactionException;
+import com.webank.wecross.stub.TransactionResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the transactions sent for client request IDs. A retry of a request still in flight is
+ * attached to it and answered with its outcome, a retry of a request which succeeded within the
+ * last WINDOW gets the same response again; either way no new transaction is sent.
+ *
+ * <p>Only a request whose failure is definitive is forgotten, its retry is sent as a new
+ * transaction: one that never reached the orderer (endorsement failed, deadline exceeded before
+ * ordering), was rejected by every orderer, or was committed invalid. A transaction reported
+ * FABRIC_COMMIT_UNKNOWN may still commit, so its txID is kept and a retry asks the resolver for
+ * the outcome of that transaction instead; further retries attach to the resolution.
+ *
+ * <p>At most MAX_ENTRIES completed requests are kept, the oldest are dropped first. Requests in
+ * flight are never dropped, the transaction deadline ends them. Neither are unknown outcomes
+ * before MAX_ENTRIES is reached, WINDOW only ends succeeded requests.
+ */
+public class SubmissionDedupWindow {
+    private Logger logger = LoggerFactory.getLogger(SubmissionDedupWindow.class);
+
+    private static final long WINDOW = 300000; // ms
+    private static final int MAX_ENTRIES = 100000;
+
+    private Map<String, Submission> submissions = new LinkedHashMap<>();
+    private int completed = 0;
+
+    /**
+     * Register the callback of a request.
+     *
+     * @return true if the caller must send the transaction and complete() the request, false if
+     *     the callback is attached to an earlier transaction of the request
+     */
+    public boolean join(String requestID, Driver.Callback callback, Resolver resolver) {
+        Submission submission;
+        String unknownTxID;
+        synchronized (this) {
+            evict(System.currentTimeMillis());
+
+            submission = submissions.get(requestID);
+            if (submission == null) {
+                submission = new Submission();
+                submission.callbacks.add(callback);
+                submissions.put(requestID, submission);
+                return true;
+            }
+
+            if (submission.completeTime == 0) {
+                submission.callbacks.add(callback);
+                logger.debug("Request {} is in flight, retry attached to it", requestID);
+                return false;
+            }
+
+            unknownTxID = submission.unknownTxID;
+            if (unknownTxID != null) {
+                // in flight again until the resolver answers
+                submission.callbacks = new LinkedList<>();
+                submission.callbacks.add(callback);
+                submission.completeTime = 0;
+                completed--;
+            }
+        }
+
+        if (unknownTxID != null) {
+            logger.debug(
+                    "Outcome of request {} unknown, retry resolves transaction {}",
+                    requestID,
+                    unknownTxID);
+            resolver.resolve(
+                    unknownTxID,
+                    (transactionException, transactionResponse) ->
+                            complete(requestID, transactionException, transactionResponse));
+            return false;
+        }
+
+        logger.debug("Request {} already succeeded, retry answered with its response", requestID);
+        callback.onTransactionResponse(
+                submission.transactionException, submission.transactionResponse);
+        return false;
+    }
+
+    public void complete(
+            String requestID,
+            TransactionException transactionException,
+            TransactionResponse transactionResponse) {
+        List<Driver.Callback> callbacks;
+        synchronized (this) {
+            Submission submission = submissions.get(requestID);
+            if (submission == null) {
+                return;
+            }
+
+            callbacks = submission.callbacks;
+            submission.callbacks = null;
+            if (transactionException != null && transactionException.isSuccess()) {
+                submission.transactionException = transactionException;
+                submission.transactionResponse = transactionResponse;
+                submission.unknownTxID = null;
+                submission.completeTime = System.currentTimeMillis();
+                completed++;
+            } else if (isUnknown(transactionException, transactionResponse)) {
+                submission.unknownTxID = transactionResponse.getHash();
+                submission.completeTime = System.currentTimeMillis();
+                completed++;
+            } else {
+                submissions.remove(requestID);
+            }
+        }
+
+        for (Driver.Callback callback : callbacks) {
+            try {
+                callback.onTransactionResponse(transactionException, transactionResponse);
+            } catch (Exception e) {
+                logger.warn("Transaction callback of request {} exception: ", requestID, e);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return submissions.size();
+    }
+
+    /**
+     * Drop succeeded requests older than WINDOW, or the oldest beyond MAX_ENTRIES. Unknown
+     * outcomes are kept until resolved, only MAX_ENTRIES drops them.
+     */
+    private void evict(long now) {
+        Iterator<Submission> iterator = submissions.values().iterator();
+        while (iterator.hasNext() && completed > 0) {
+            Submission submission = iterator.next();
+            if (submission.completeTime == 0) {
+                continue; // in flight
+            }
+            if (submission.unknownTxID != null && completed <= MAX_ENTRIES) {
+                continue; // a retry may still learn its outcome
+            }
+            if (now - submission.completeTime < WINDOW && completed <= MAX_ENTRIES) {
+                break; // completed in insertion order, roughly, the rest is younger
+            }
+            iterator.remove();
+            completed--;
+        }
+    }
+
+    private static boolean isUnknown(
+            TransactionException transactionException, TransactionResponse transactionResponse) {
+        return transactionException != null
+                && transactionException.getErrorCode() != null
+                && transactionException.getErrorCode()
+                        == FabricType.TransactionResponseStatus.FABRIC_COMMIT_UNKNOWN
+                && transactionResponse != null
+                && transactionResponse.getHash() != null;
+    }
+
+    /** Learns the outcome of a sent transaction, as if it were sent again. */
+    public interface Resolver {
+        void resolve(String txID, Driver.Callback callback);
+    }
+
+    private static class Submission {
+        private List<Driver.Callback> callbacks = new LinkedList<>();
+        private TransactionException transactionException;
+        private TransactionResponse transactionResponse;
+        private String unknownTxID; // set while the outcome is unknown
+        private long completeTime = 0; // 0 while in flight
+    }
+}
@@ -0,0 +1,51 @@
+package com.cayden.sample.fabric;
+
+/**
+ * Deadline of one transaction, split into the deadlines of its phases. Endorsement may use the
+ * first 40% of the budget and ordering runs until 70%, so time a phase leaves unused goes to the
+ * next one, and the commit wait gets whatever is left. Deadlines are absolute milliseconds, 0
+ * means none.
+ */
+public class TransactionDeadline {
+    public static final long DEFAULT_TIMEOUT = 30000; // ms
+    private static final double ENDORSE_SHARE = 0.4;
+    private static final double ORDER_SHARE = 0.7;
+
+    private long startTime;
+    private long deadline;
+
+    private TransactionDeadline(long startTime, long deadline) {
+        this.startTime = startTime;
+        this.deadline = deadline;
+    }
+
+    public static TransactionDeadline after(long timeout) {
+        long now = System.currentTimeMillis();
+        return new TransactionDeadline(now, now + timeout);
+    }
+
+    public static TransactionDeadline at(long deadline) {
+        return new TransactionDeadline(System.currentTimeMillis(), deadline);
+    }
+
+    public long getEndorseDeadline() {
+        return startTime + (long) ((deadline - startTime) * ENDORSE_SHARE);
+    }
+
+    public long getOrderDeadline() {
+        return startTime + (long) ((deadline - startTime) * ORDER_SHARE);
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /** Milliseconds left until deadline, Long.MAX_VALUE if there is none. */
+    public static long remaining(long deadline) {
+        return deadline == 0 ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+    }
+
+    public static boolean isExpired(long deadline) {
+        return remaining(deadline) <= 0;
+    }
+}
@@ -0,0 +1,347 @@
+package com.cayden.sample.fabric;
+
+import com.google.protobuf.CodedInputStream;
+import org.hyperledger.fabric.protos.common.Common;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of signed envelopes between endorsement and commit. An envelope is appended
+ * before it is broadcast and marked done once its outcome is known, the envelopes still pending
+ * when the connection starts are broadcast again. Orderers don't check txIDs, an envelope which did
+ * commit is ordered again and invalidated by the peers as DUPLICATE_TXID, so a replay never
+ * applies a transaction twice.
+ *
+ * <p>One writer thread appends whatever queued up while the previous fsync ran in a single write
+ * and a single fsync (group commit), so durability costs one fsync per batch. Done marks ride
+ * along and nobody waits for them, a lost mark only costs a replay. Records carry their length and
+ * a CRC32, a torn record at the end of the file is dropped on recovery. A batch whose write or
+ * fsync fails is truncated away, so later records never land behind torn bytes; if even that
+ * fails, the outbox refuses all further appends. The file is rewritten with only the pending
+ * records at startup and whenever it grows past MAX_FILE_SIZE.
+ */
+public class TransactionOutbox {
+    private Logger logger = LoggerFactory.getLogger(TransactionOutbox.class);
+
+    private static final byte PENDING = 1;
+    private static final byte DONE = 2;
+    private static final int HEADER_SIZE = 8; // length and crc of the record body
+    private static final int MAX_BATCH = 4096; // records per fsync
+    private static final long MAX_FILE_SIZE = 64 * 1024 * 1024; // bytes
+
+    private File file;
+    private FileChannel fileChannel;
+    private Map<String, byte[]> pending = new LinkedHashMap<>(); // txID to record, writer only
+    private List<Entry> recovered = new ArrayList<>();
+    private BlockingQueue<Append> queue = new LinkedBlockingQueue<>();
+    private Thread writer;
+    private volatile boolean closed = false;
+    private volatile Exception failure; // set if a failed write could not be undone
+
+    public TransactionOutbox(String path) throws Exception {
+        this.file = new File(path);
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new Exception("Could not create directory of transaction outbox " + path);
+        }
+        recover();
+        compact();
+
+        this.writer = new Thread(this::writeLoop, "fabric-outbox");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        logger.info("Transaction outbox {} opened, {} pending", path, recovered.size());
+    }
+
+    /** Envelopes which were pending when the outbox was opened, to be broadcast again. */
+    public List<Entry> getRecovered() {
+        return recovered;
+    }
+
+    /** Record an envelope, the future completes once the record is on disk. */
+    public CompletableFuture<Void> append(String txID, String resource, Common.Envelope envelope) {
+        Append append = new Append(txID, encode(PENDING, txID, resource, envelope));
+        return enqueue(append);
+    }
+
+    public void markDone(String txID) {
+        enqueue(new Append(txID, encode(DONE, txID, "", null)));
+    }
+
+    public void close() {
+        closed = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+            fileChannel.close();
+        } catch (Exception e) {
+            logger.warn("Close transaction outbox exception: ", e);
+        }
+    }
+
+    private CompletableFuture<Void> enqueue(Append append) {
+        if (closed) {
+            append.future.completeExceptionally(new Exception("Transaction outbox closed"));
+        } else if (failure != null) {
+            append.future.completeExceptionally(failure);
+        } else {
+            queue.add(append);
+        }
+        return append.future;
+    }
+
+    private void writeLoop() {
+        List<Append> batch = new ArrayList<>(MAX_BATCH);
+        while (!closed || !queue.isEmpty()) {
+            long size = -1;
+            try {
+                Append first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                if (failure != null) {
+                    throw failure;
+                }
+
+                ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+                for (int i = 0; i < batch.size(); i++) {
+                    buffers[i] = ByteBuffer.wrap(batch.get(i).record);
+                }
+                size = fileChannel.size();
+                write(buffers);
+                fileChannel.force(false);
+
+                for (Append append : batch) {
+                    if (append.record[HEADER_SIZE] == PENDING) {
+                        pending.put(append.txID, append.record);
+                    } else {
+                        pending.remove(append.txID);
+                    }
+                    append.future.complete(null);
+                }
+            } catch (Exception e) {
+                logger.error("Transaction outbox write exception: ", e);
+                if (size >= 0) {
+                    truncate(size);
+                }
+                for (Append append : batch) {
+                    append.future.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+
+            try {
+                if (failure == null && fileChannel.size() > MAX_FILE_SIZE) {
+                    compact();
+                }
+            } catch (Exception e) {
+                logger.warn("Compact transaction outbox exception: ", e);
+            }
+        }
+    }
+
+    /** Cut a partly written batch off, or give up on the file if that fails too. */
+    private void truncate(long size) {
+        try {
+            fileChannel.truncate(size);
+            fileChannel.force(false);
+        } catch (Exception e) {
+            failure = new Exception("Transaction outbox " + file + " has a torn write", e);
+            logger.error("Transaction outbox disabled, truncate exception: ", e);
+        }
+    }
+
+    private void write(ByteBuffer[] buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= fileChannel.write(buffers);
+        }
+    }
+
+    private void recover() throws Exception {
+        if (!file.exists()) {
+            return;
+        }
+
+        Map<String, byte[]> records = new LinkedHashMap<>();
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte[] record = null;
+                try {
+                    int length = in.readInt();
+                    int crc = in.readInt();
+                    if (length > 0 && length <= MAX_FILE_SIZE) {
+                        record = new byte[HEADER_SIZE + length];
+                        in.readFully(record, HEADER_SIZE, length);
+                        ByteBuffer.wrap(record).putInt(length).putInt(crc);
+                    }
+                    if (record == null || (int) crc(record, HEADER_SIZE, length) != crc) {
+                        logger.warn("Outbox {} has a corrupt record, the rest is ignored", file);
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break; // end of file, or a record torn by a crash
+                }
+
+                DataInputStream body = body(record);
+                byte type = body.readByte();
+                String txID = body.readUTF();
+                if (type == PENDING) {
+                    records.put(txID, record);
+                } else {
+                    records.remove(txID);
+                }
+            }
+        }
+
+        for (byte[] record : records.values()) {
+            recovered.add(decode(record));
+        }
+        pending.putAll(records);
+    }
+
+    /** Rewrite the file with the pending records only. */
+    private void compact() throws IOException {
+        File compacted = new File(file.getPath() + ".tmp");
+        try (FileChannel out =
+                FileChannel.open(
+                        compacted.toPath(),
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (byte[] record : pending.values()) {
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            out.force(true);
+        }
+        Files.move(
+                compacted.toPath(),
+                file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        if (fileChannel != null) {
+            fileChannel.close();
+        }
+        fileChannel =
+                FileChannel.open(
+                        file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static byte[] encode(
+            byte type, String txID, String resource, Common.Envelope envelope) {
+        try {
+            ByteArrayOutputStream bytes =
+                    new ByteArrayOutputStream(
+                            64 + (envelope == null ? 0 : envelope.getSerializedSize()));
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); // length and crc, filled in below
+            out.writeInt(0);
+            out.writeByte(type);
+            out.writeUTF(txID);
+            out.writeUTF(resource);
+            if (envelope != null) {
+                out.writeInt(envelope.getSerializedSize());
+                envelope.writeTo(out);
+            }
+            out.flush();
+
+            byte[] record = bytes.toByteArray();
+            int length = record.length - HEADER_SIZE;
+            ByteBuffer.wrap(record).putInt(length).putInt((int) crc(record, HEADER_SIZE, length));
+            return record;
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // in memory, can't happen
+        }
+    }
+
+    private static Entry decode(byte[] record) throws IOException {
+        DataInputStream in = body(record);
+        in.readByte();
+        String txID = in.readUTF();
+        String resource = in.readUTF();
+        int size = in.readInt();
+        Common.Envelope envelope =
+                Common.Envelope.parseFrom(
+                        CodedInputStream.newInstance(record, record.length - size, size));
+        return new Entry(txID, resource, envelope);
+    }
+
+    private static DataInputStream body(byte[] record) {
+        return new DataInputStream(
+                new ByteArrayInputStream(record, HEADER_SIZE, record.length - HEADER_SIZE));
+    }
+
+    private static long crc(byte[] bytes, int offset, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, offset, length);
+        return crc32.getValue();
+    }
+
+    private static class Append {
+        private String txID;
+        private byte[] record;
+        private CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Append(String txID, byte[] record) {
+            this.txID = txID;
+            this.record = record;
+        }
+    }
+
+    public static class Entry {
+        private String txID;
+        private String resource;
+        private Common.Envelope envelope;
+
+        Entry(String txID, String resource, Common.Envelope envelope) {
+            this.txID = txID;
+            this.resource = resource;
+            this.envelope = envelope;
+        }
+
+        public String getTxID() {
+            return txID;
+        }
+
+        public String getResource() {
+            return resource;
+        }
+
+        public Common.Envelope getEnvelope() {
+            return envelope;
+        }
+    }
+}
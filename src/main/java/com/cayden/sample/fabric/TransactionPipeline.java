@@ -0,0 +1,130 @@
+package com.cayden.sample.fabric;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stages of a transaction, each on its own executor so CPU bound work (signing, protobuf
+ * encoding, block parsing) doesn't run on the gRPC and event threads which wait for I/O:
+ *
+ * <pre>
+ * proposal: build and sign the proposal            (driver, CPU)
+ * assemble: check endorsements, build the payload  (connection, CPU)
+ * envelope: sign the envelope                      (driver, CPU)
+ * commit:   answer commit events of a block        (connection, I/O)
+ * verify:   parse the block and find the tx        (driver, CPU)
+ * complete: every callback of the connection       (connection, I/O)
+ * </pre>
+ *
+ * The driver and the connection are created separately by the stub factory, so they share the
+ * default pipeline. Stage metrics are logged every METRICS_PERIOD while transactions run.
+ */
+public class TransactionPipeline {
+    private Logger logger = LoggerFactory.getLogger(TransactionPipeline.class);
+
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final long METRICS_PERIOD = 60000; // ms
+    private static final Timer timeoutHandler = new HashedWheelTimer();
+    private static final TransactionPipeline defaultPipeline =
+            new TransactionPipeline(
+                    Runtime.getRuntime().availableProcessors(),
+                    Runtime.getRuntime().availableProcessors() * 4,
+                    QUEUE_CAPACITY);
+
+    private PipelineStage proposalStage;
+    private PipelineStage assembleStage;
+    private PipelineStage envelopeStage;
+    private PipelineStage commitStage;
+    private PipelineStage verifyStage;
+    private PipelineStage completionStage;
+    private long lastCompleted = 0;
+
+    public TransactionPipeline(int cpuThreads, int ioThreads, int queueCapacity) {
+        this.proposalStage = new PipelineStage("proposal", cpuThreads, queueCapacity);
+        this.assembleStage = new PipelineStage("assemble", cpuThreads, queueCapacity);
+        this.envelopeStage = new PipelineStage("envelope", cpuThreads, queueCapacity);
+        this.commitStage = new PipelineStage("commit", ioThreads, queueCapacity);
+        this.verifyStage = new PipelineStage("verify", cpuThreads, queueCapacity);
+        this.completionStage = new PipelineStage("complete", ioThreads, queueCapacity);
+        scheduleMetrics();
+    }
+
+    public static TransactionPipeline getDefault() {
+        return defaultPipeline;
+    }
+
+    public PipelineStage getProposalStage() {
+        return proposalStage;
+    }
+
+    public PipelineStage getAssembleStage() {
+        return assembleStage;
+    }
+
+    public PipelineStage getEnvelopeStage() {
+        return envelopeStage;
+    }
+
+    public PipelineStage getCommitStage() {
+        return commitStage;
+    }
+
+    public PipelineStage getVerifyStage() {
+        return verifyStage;
+    }
+
+    /**
+     * Runs the callbacks of the connection, so SDK, gRPC and timer threads only hand off. User
+     * callbacks run here too, they must not block on a sync call() or sendTransaction(): its own
+     * callback needs a thread of this stage.
+     */
+    public PipelineStage getCompletionStage() {
+        return completionStage;
+    }
+
+    public List<PipelineStage> getStages() {
+        return Arrays.asList(
+                proposalStage,
+                assembleStage,
+                envelopeStage,
+                commitStage,
+                verifyStage,
+                completionStage);
+    }
+
+    public String report() {
+        StringBuilder report = new StringBuilder("Transaction pipeline:");
+        for (PipelineStage stage : getStages()) {
+            report.append(" ").append(stage);
+        }
+        return report.toString();
+    }
+
+    private void scheduleMetrics() {
+        timeoutHandler.newTimeout(
+                new TimerTask() {
+                    @Override
+                    public void run(Timeout timeout) throws Exception {
+                        long completed = 0;
+                        for (PipelineStage stage : getStages()) {
+                            completed += stage.getCompleted();
+                        }
+                        if (completed != lastCompleted) {
+                            lastCompleted = completed;
+                            logger.info(report());
+                        }
+                        scheduleMetrics();
+                    }
+                },
+                METRICS_PERIOD,
+                TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,324 @@
+package com.cayden.sample.fabric;
+
+import com.cayden.sample.common.FabricType;
+import com.webank.wecross.stub.Connection;
+import com.webank.wecross.stub.Driver;
+import com.webank.wecross.stub.TransactionContext;
+import com.webank.wecross.stub.TransactionException;
+import com.webank.wecross.stub.TransactionRequest;
+import com.webank.wecross.stub.TransactionResponse;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges small writes of one resource into a single transaction of its batch method. Writes to
+ * method are collected for at most window ms or until size of them are waiting, then sent as
+ * batchMethod with the args [arity, args of write 1, args of write 2, ...], so the chaincode
+ * applies them in call order. The batch result is split at newlines, one line per write; a result
+ * with another number of lines fails every write with INTERNAL_ERROR, the batch committed but no
+ * write can tell which line is its own.
+ *
+ * <p>A batch the chaincode rejects at endorsement (FABRIC_INVOKE_CHAINCODE_FAILED) was not
+ * ordered, one bad write must not fail the others: its writes are sent again one by one, in call
+ * order, and each gets its own outcome. Any other failure, an MVCC conflict the sender's retries
+ * did not resolve, an invalid transaction or an unknown outcome, goes to every write of the batch.
+ *
+ * <p>Only writes signed by the same account and with the same number of args share a batch. The
+ * first arg is the key, tracked across all accounts and arities: a write waits while its key is in
+ * a batch still in flight or an earlier write of the key is waiting, so two batches never race on
+ * a key and writes of a key commit in call order. One lock guards the queues and the keys.
+ */
+public class WriteCoalescer {
+    private Logger logger = LoggerFactory.getLogger(WriteCoalescer.class);
+
+    private static final Timer windowHandler = new HashedWheelTimer();
+
+    private Sender sender;
+    private String method;
+    private String batchMethod;
+    private long window;
+    private int size;
+    private Map<String, Queue> queues = new ConcurrentHashMap<>();
+    private Map<String, Integer> inFlightKeys = new HashMap<>();
+    private Map<String, LinkedList<Write>> waitingKeys = new HashMap<>(); // in call order
+
+    public WriteCoalescer(
+            Sender sender, String method, String batchMethod, long window, int size) {
+        this.sender = sender;
+        this.method = method;
+        this.batchMethod = batchMethod;
+        this.window = window;
+        this.size = Math.max(size, 1);
+    }
+
+    /** True if the transaction is a write this coalescer merges. */
+    public boolean accepts(TransactionContext<TransactionRequest> request) {
+        return request.getData() != null
+                && request.getAccount() != null
+                && method.equals(request.getData().getMethod())
+                && request.getData().getArgs() != null
+                && request.getData().getArgs().length > 0;
+    }
+
+    public void send(
+            TransactionContext<TransactionRequest> request,
+            Connection connection,
+            Driver.Callback callback) {
+        String queueKey =
+                request.getAccount().getIdentity() + ":" + request.getData().getArgs().length;
+        Queue queue = queues.computeIfAbsent(queueKey, key -> new Queue());
+        queue.add(new Write(request, connection, callback, queue));
+    }
+
+    /** Sends a transaction as it is, bypassing the coalescer. */
+    public interface Sender {
+        void send(
+                TransactionContext<TransactionRequest> request,
+                Connection connection,
+                Driver.Callback callback);
+    }
+
+    /** Keys of a batch are free again, queues holding the next writes of them can go. */
+    private void onBatchDone(List<Write> batch) {
+        Set<Queue> ready = new HashSet<>();
+        synchronized (this) {
+            for (Write write : batch) {
+                if (inFlightKeys.computeIfPresent(
+                                write.key, (key, count) -> count > 1 ? count - 1 : null)
+                        != null) {
+                    continue;
+                }
+                LinkedList<Write> waiting = waitingKeys.get(write.key);
+                if (waiting != null) {
+                    ready.add(waiting.getFirst().queue);
+                }
+            }
+        }
+        for (Queue queue : ready) {
+            queue.flush();
+        }
+    }
+
+    private static class Write {
+        private TransactionContext<TransactionRequest> request;
+        private Connection connection;
+        private Driver.Callback callback;
+        private String key;
+        private Queue queue;
+
+        Write(
+                TransactionContext<TransactionRequest> request,
+                Connection connection,
+                Driver.Callback callback,
+                Queue queue) {
+            this.request = request;
+            this.connection = connection;
+            this.callback = callback;
+            this.key = request.getData().getArgs()[0];
+            this.queue = queue;
+        }
+    }
+
+    private class Queue {
+        private List<Write> pending = new LinkedList<>();
+        private Timeout timeout;
+
+        void add(Write write) {
+            boolean full;
+            synchronized (WriteCoalescer.this) {
+                pending.add(write);
+                waitingKeys.computeIfAbsent(write.key, key -> new LinkedList<>()).add(write);
+                full = pending.size() >= size;
+                if (!full && timeout == null) {
+                    timeout =
+                            windowHandler.newTimeout(
+                                    t -> flush(), window, TimeUnit.MILLISECONDS);
+                }
+            }
+            if (full) {
+                flush();
+            }
+        }
+
+        void flush() {
+            List<Write> batch = new ArrayList<>(size);
+            synchronized (WriteCoalescer.this) {
+                if (timeout != null) {
+                    timeout.cancel();
+                    timeout = null;
+                }
+
+                int heldWrites = 0;
+                Iterator<Write> iterator = pending.iterator();
+                while (iterator.hasNext() && batch.size() < size) {
+                    Write write = iterator.next();
+                    LinkedList<Write> waiting = waitingKeys.get(write.key);
+                    if (inFlightKeys.containsKey(write.key) || waiting.getFirst() != write) {
+                        heldWrites++; // behind a batch or an earlier write of the key
+                        continue;
+                    }
+                    iterator.remove();
+                    waiting.removeFirst();
+                    if (waiting.isEmpty()) {
+                        waitingKeys.remove(write.key);
+                    }
+                    inFlightKeys.merge(write.key, 1, Integer::sum);
+                    batch.add(write);
+                }
+
+                // held writes go when their keys are free, the others in the next window
+                if (pending.size() > heldWrites) {
+                    timeout =
+                            windowHandler.newTimeout(
+                                    t -> flush(), window, TimeUnit.MILLISECONDS);
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                sendBatch(batch);
+            }
+        }
+
+        private void sendBatch(List<Write> batch) {
+            Write first = batch.get(0);
+            if (batch.size() == 1) {
+                sender.send(
+                        first.request,
+                        first.connection,
+                        (transactionException, transactionResponse) -> {
+                            onBatchDone(batch);
+                            first.callback.onTransactionResponse(
+                                    transactionException, transactionResponse);
+                        });
+                return;
+            }
+
+            int arity = first.request.getData().getArgs().length;
+            String[] args = new String[1 + arity * batch.size()];
+            args[0] = Integer.toString(arity);
+            for (int i = 0; i < batch.size(); i++) {
+                System.arraycopy(
+                        batch.get(i).request.getData().getArgs(), 0, args, 1 + i * arity, arity);
+            }
+            TransactionContext<TransactionRequest> batchRequest =
+                    new TransactionContext<>(
+                            new TransactionRequest(batchMethod, args),
+                            first.request.getAccount(),
+                            first.request.getResourceInfo(),
+                            first.request.getBlockHeaderManager());
+
+            logger.debug("Send {} writes as one {} transaction", batch.size(), batchMethod);
+            sender.send(
+                    batchRequest,
+                    first.connection,
+                    (transactionException, transactionResponse) -> {
+                        if (transactionException != null
+                                && transactionException.getErrorCode() != null
+                                && transactionException.getErrorCode()
+                                        == FabricType.TransactionResponseStatus
+                                                .FABRIC_INVOKE_CHAINCODE_FAILED) {
+                            logger.debug(
+                                    "{} of {} writes rejected, send them one by one: {}",
+                                    batchMethod,
+                                    batch.size(),
+                                    transactionException.getMessage());
+                            sendEach(batch, 0);
+                            return;
+                        }
+                        onBatchDone(batch);
+                        split(batch, transactionException, transactionResponse);
+                    });
+        }
+
+        /** Writes of a rejected batch one after another, its keys stay in flight until the last. */
+        private void sendEach(List<Write> batch, int next) {
+            if (next >= batch.size()) {
+                onBatchDone(batch);
+                return;
+            }
+
+            Write write = batch.get(next);
+            sender.send(
+                    write.request,
+                    write.connection,
+                    (transactionException, transactionResponse) -> {
+                        try {
+                            write.callback.onTransactionResponse(
+                                    transactionException, transactionResponse);
+                        } catch (Exception e) {
+                            logger.warn("Coalesced write callback exception: ", e);
+                        }
+                        sendEach(batch, next + 1);
+                    });
+        }
+
+        private void split(
+                List<Write> batch,
+                TransactionException transactionException,
+                TransactionResponse transactionResponse) {
+            String[] results = null;
+            if (transactionResponse != null
+                    && transactionResponse.getResult() != null
+                    && transactionResponse.getResult().length == 1) {
+                results = transactionResponse.getResult()[0].split("\n", -1);
+                if (results.length != batch.size()) {
+                    results = null;
+                }
+            }
+
+            // committed, but no write can tell which part of the result is its own
+            String unsplitMessage = null;
+            if (transactionException != null
+                    && transactionException.isSuccess()
+                    && results == null) {
+                unsplitMessage =
+                        batchMethod + " result does not have one line for each of its writes";
+                logger.warn("{}: {}", unsplitMessage, transactionResponse);
+                transactionException =
+                        new TransactionException(
+                                FabricType.TransactionResponseStatus.INTERNAL_ERROR,
+                                unsplitMessage);
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                TransactionResponse response = transactionResponse;
+                if (transactionResponse != null) {
+                    response = new TransactionResponse();
+                    response.setErrorCode(transactionResponse.getErrorCode());
+                    response.setErrorMessage(transactionResponse.getErrorMessage());
+                    response.setHash(transactionResponse.getHash());
+                    response.setBlockNumber(transactionResponse.getBlockNumber());
+                    if (unsplitMessage != null) {
+                        response.setErrorCode(FabricType.TransactionResponseStatus.INTERNAL_ERROR);
+                        response.setErrorMessage(unsplitMessage);
+                    } else {
+                        response.setResult(
+                                results == null
+                                        ? transactionResponse.getResult()
+                                        : new String[] {results[i]});
+                    }
+                }
+
+                try {
+                    batch.get(i).callback.onTransactionResponse(transactionException, response);
+                } catch (Exception e) {
+                    logger.warn("Coalesced write callback exception: ", e);
+                }
+            }
+        }
+    }
+}
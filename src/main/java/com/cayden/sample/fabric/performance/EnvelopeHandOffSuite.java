@@ -0,0 +1,128 @@
+package com.cayden.sample.fabric.performance;
+
+import com.google.protobuf.ByteString;
+import com.cayden.sample.account.FabricAccount;
+import com.cayden.sample.fabric.ChaincodeConnection;
+import com.cayden.sample.fabric.FabricConnection;
+import com.cayden.sample.fabric.FabricConnectionFactory;
+import com.cayden.sample.fabric.OrdererRequest;
+import com.cayden.sample.fabric.OrdererRequestFactory;
+import com.cayden.sample.fabric.ProposalTemplate;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.protos.peer.FabricProposal;
+import org.hyperledger.fabric.sdk.transaction.TransactionBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bytes allocated to hand one signed envelope from the driver to the orderer stream (no network),
+ * signing included. The legacy mode copies the payload into the envelope, serializes it and parses
+ * it back in the connection as before OrdererRequest carried the envelope. The average is printed
+ * every REPORT_INTERVAL transactions, run both modes with the same payload size to compare.
+ */
+public class EnvelopeHandOffSuite implements PerformanceSuite {
+    private static final int PAYLOAD_SIZE = 4096; // bytes of chaincode results and events
+    private static final int REPORT_INTERVAL = 10000;
+
+    private boolean legacy;
+    private FabricAccount account;
+    private String txID;
+    private byte[] ordererPayloadToSign;
+    private com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private AtomicLong transactions = new AtomicLong();
+    private AtomicLong allocatedBytes = new AtomicLong();
+
+    public EnvelopeHandOffSuite(String chainPath, boolean legacy) throws Exception {
+        FabricConnection fabricConnection = FabricConnectionFactory.build(chainPath);
+
+        if (!fabricConnection.getChaincodeMap().containsKey("sacc")) {
+            throw new Exception(
+                    "Resource sacc has not been config, please check chains/fabric/stub.toml");
+        }
+
+        ChaincodeConnection chaincodeConnection = fabricConnection.getChaincodeMap().get("sacc");
+        this.legacy = legacy;
+        this.account = new FabricAccount(chaincodeConnection.getHfClient().getUserContext());
+
+        // The payload the connection would assemble from the endorsements, built once
+        FabricProposal.Proposal proposal =
+                ProposalTemplate.get(account, chaincodeConnection.getResourceInfo().getProperties())
+                        .newProposal("set", new String[] {"key", "value"});
+        byte[] results = new byte[PAYLOAD_SIZE];
+        new SecureRandom().nextBytes(results);
+        this.ordererPayloadToSign =
+                TransactionBuilder.newBuilder()
+                        .chaincodeProposal(proposal)
+                        .endorsements(Collections.emptyList())
+                        .proposalResponsePayload(ByteString.copyFrom(results))
+                        .build()
+                        .toByteArray();
+        this.txID = parseTxID(ordererPayloadToSign);
+    }
+
+    @Override
+    public String getName() {
+        return legacy ? "Legacy Envelope Hand-off Suite" : "Envelope Hand-off Suite";
+    }
+
+    @Override
+    public void call(PerformanceSuiteCallback callback) {
+        try {
+            long threadId = Thread.currentThread().getId();
+            long before = threadMXBean.getThreadAllocatedBytes(threadId);
+
+            Common.Envelope envelope;
+            String envelopeTxID;
+            if (legacy) {
+                byte[] sign = account.sign(ordererPayloadToSign);
+                byte[] data =
+                        Common.Envelope.newBuilder()
+                                .setPayload(ByteString.copyFrom(ordererPayloadToSign))
+                                .setSignature(ByteString.copyFrom(sign))
+                                .build()
+                                .toByteArray();
+                envelope = Common.Envelope.parseFrom(data);
+                envelopeTxID = parseTxID(envelope.getPayload().toByteArray());
+            } else {
+                OrdererRequest request =
+                        OrdererRequest.from(
+                                OrdererRequestFactory.build(account, txID, ordererPayloadToSign));
+                envelope = request.getEnvelope();
+                envelopeTxID = request.getTxID();
+            }
+
+            long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+            report(allocated);
+            if (!txID.equals(envelopeTxID) || envelope.getPayload().isEmpty()) {
+                callback.onFailed("Envelope lost its payload or txID");
+                return;
+            }
+            callback.onSuccess(String.valueOf(allocated));
+        } catch (Exception e) {
+            callback.onFailed("Envelope hand-off failed: " + e);
+        }
+    }
+
+    private void report(long allocated) {
+        long total = allocatedBytes.addAndGet(allocated);
+        long count = transactions.incrementAndGet();
+        if (count % REPORT_INTERVAL == 0) {
+            System.out.println(
+                    getName()
+                            + ": "
+                            + (total / count)
+                            + " bytes allocated per transaction, payload "
+                            + ordererPayloadToSign.length
+                            + " bytes");
+        }
+    }
+
+    private static String parseTxID(byte[] payloadBytes) throws Exception {
+        Common.Payload payload = Common.Payload.parseFrom(payloadBytes);
+        return Common.ChannelHeader.parseFrom(payload.getHeader().getChannelHeader()).getTxId();
+    }
+}
@@ -0,0 +1,121 @@
+package com.cayden.sample.fabric.performance;
+
+import com.cayden.sample.account.FabricAccount;
+import com.cayden.sample.common.FabricType;
+import com.cayden.sample.fabric.ChaincodeConnection;
+import com.cayden.sample.fabric.EndorserRequestFactory;
+import com.cayden.sample.fabric.FabricConnection;
+import com.cayden.sample.fabric.FabricConnectionFactory;
+import com.webank.wecross.stub.Connection;
+import com.webank.wecross.stub.Request;
+import com.webank.wecross.stub.ResourceInfo;
+import com.webank.wecross.stub.Response;
+import com.webank.wecross.stub.TransactionContext;
+import com.webank.wecross.stub.TransactionRequest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-flight queries versus threads. The async mode leaves every query on the non-blocking
+ * endorsement path, the blocking mode waits for each one on the calling thread like the old
+ * thread-pool "simulated async" did. Peak in-flight and thread counts are printed as it runs.
+ */
+public class InFlightCapacitySuite implements PerformanceSuite {
+    private static final int REPORT_INTERVAL = 1000;
+
+    private boolean blocking;
+    private ChaincodeConnection chaincodeConnection;
+    private FabricAccount account;
+    private ResourceInfo resourceInfo;
+
+    private AtomicInteger inFlight = new AtomicInteger(0);
+    private AtomicInteger peakInFlight = new AtomicInteger(0);
+    private AtomicInteger finished = new AtomicInteger(0);
+    private ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    public InFlightCapacitySuite(String chainPath, boolean blocking) throws Exception {
+        FabricConnection fabricConnection = FabricConnectionFactory.build(chainPath);
+        fabricConnection.start();
+
+        if (!fabricConnection.getChaincodeMap().containsKey("sacc")) {
+            throw new Exception(
+                    "Resource sacc has not been config, please check chains/fabric/stub.toml");
+        }
+
+        this.blocking = blocking;
+        this.chaincodeConnection = fabricConnection.getChaincodeMap().get("sacc");
+        this.account = new FabricAccount(chaincodeConnection.getHfClient().getUserContext());
+        this.resourceInfo = chaincodeConnection.getResourceInfo();
+    }
+
+    @Override
+    public String getName() {
+        return blocking ? "Blocking In-Flight Capacity Suite" : "Async In-Flight Capacity Suite";
+    }
+
+    @Override
+    public void call(PerformanceSuiteCallback callback) {
+        Request request;
+        try {
+            request = buildRequest();
+        } catch (Exception e) {
+            callback.onFailed("Build request failed: " + e);
+            return;
+        }
+
+        int current = inFlight.incrementAndGet();
+        peakInFlight.accumulateAndGet(current, Math::max);
+
+        Connection.Callback connectionCallback =
+                new Connection.Callback() {
+                    @Override
+                    public void onResponse(Response response) {
+                        inFlight.decrementAndGet();
+                        report();
+                        if (response.getErrorCode()
+                                == FabricType.TransactionResponseStatus.SUCCESS) {
+                            callback.onSuccess("Success");
+                        } else {
+                            callback.onFailed("sacc query failed: " + response.getErrorMessage());
+                        }
+                    }
+                };
+
+        if (blocking) {
+            connectionCallback.onResponse(chaincodeConnection.call(request));
+        } else {
+            chaincodeConnection.asyncCall(request, connectionCallback);
+        }
+    }
+
+    private Request buildRequest() throws Exception {
+        TransactionContext<TransactionRequest> context =
+                new TransactionContext<>(
+                        new TransactionRequest("query", new String[] {"a"}),
+                        account,
+                        resourceInfo,
+                        null);
+        Request request = EndorserRequestFactory.build(context);
+        request.setType(FabricType.ConnectionMessage.FABRIC_CALL);
+        request.setResourceInfo(resourceInfo);
+        return request;
+    }
+
+    private void report() {
+        if (finished.incrementAndGet() % REPORT_INTERVAL != 0) {
+            return;
+        }
+
+        System.out.println(
+                "In flight: "
+                        + inFlight.get()
+                        + ", peak in flight: "
+                        + peakInFlight.get()
+                        + ", live threads: "
+                        + threadMXBean.getThreadCount()
+                        + ", peak threads: "
+                        + threadMXBean.getPeakThreadCount());
+    }
+}
@@ -0,0 +1,115 @@
+package com.cayden.sample.fabric.performance;
+
+import com.cayden.sample.fabric.ChaincodeConnection;
+import com.cayden.sample.fabric.FabricConnection;
+import com.cayden.sample.fabric.FabricConnectionFactory;
+import com.cayden.sample.fabric.FabricInnerFunction;
+import org.hyperledger.fabric.protos.peer.FabricProposal;
+import org.hyperledger.fabric.protos.peer.FabricProposalResponse;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+import org.hyperledger.fabric.sdk.security.CryptoSuite;
+import org.hyperledger.fabric.sdk.transaction.TransactionContext;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Dispatch cost of the SDK inner functions (no network). Each call builds CALLS_PER_ROUND proposal
+ * responses through the constructor and three setters, either with the method handles of
+ * FabricInnerFunction or with the reflective Method.invoke it used before. Run with qps high
+ * enough to keep the JIT warm; the reported latency (ms) divided by CALLS_PER_ROUND is the cost of
+ * one dispatch.
+ */
+public class InnerFunctionDispatchSuite implements PerformanceSuite {
+    private static final int CALLS_PER_ROUND = 10000;
+
+    private boolean legacy;
+    private FabricInnerFunction fabricInnerFunction;
+    private TransactionContext transactionContext;
+    private Peer peer;
+    private FabricProposal.SignedProposal signedProposal =
+            FabricProposal.SignedProposal.getDefaultInstance();
+    private FabricProposalResponse.ProposalResponse fabricResponse =
+            FabricProposalResponse.ProposalResponse.getDefaultInstance();
+
+    private Constructor<ProposalResponse> constructorProposalResponse;
+    private Method methodSetProposalResponse;
+    private Method methodSetProposal;
+    private Method methodSetPeer;
+
+    public InnerFunctionDispatchSuite(String chainPath, boolean legacy) throws Exception {
+        FabricConnection fabricConnection = FabricConnectionFactory.build(chainPath);
+
+        if (!fabricConnection.getChaincodeMap().containsKey("sacc")) {
+            throw new Exception(
+                    "Resource sacc has not been config, please check chains/fabric/stub.toml");
+        }
+
+        ChaincodeConnection chaincodeConnection = fabricConnection.getChaincodeMap().get("sacc");
+        this.legacy = legacy;
+        this.fabricInnerFunction = new FabricInnerFunction(fabricConnection.getChannel());
+        this.peer = chaincodeConnection.getEndorsers().iterator().next();
+        this.transactionContext =
+                new TransactionContext(
+                        fabricConnection.getChannel(),
+                        chaincodeConnection.getHfClient().getUserContext(),
+                        CryptoSuite.Factory.getCryptoSuite());
+        this.transactionContext.verify(false);
+
+        constructorProposalResponse =
+                ProposalResponse.class.getDeclaredConstructor(
+                        TransactionContext.class, int.class, String.class);
+        constructorProposalResponse.setAccessible(true);
+        methodSetProposalResponse =
+                ProposalResponse.class.getDeclaredMethod(
+                        "setProposalResponse", FabricProposalResponse.ProposalResponse.class);
+        methodSetProposalResponse.setAccessible(true);
+        methodSetProposal =
+                ProposalResponse.class.getDeclaredMethod(
+                        "setProposal", FabricProposal.SignedProposal.class);
+        methodSetProposal.setAccessible(true);
+        methodSetPeer = ProposalResponse.class.getDeclaredMethod("setPeer", Peer.class);
+        methodSetPeer.setAccessible(true);
+    }
+
+    @Override
+    public String getName() {
+        return legacy
+                ? "Reflective Inner Function Dispatch Suite"
+                : "Method Handle Inner Function Dispatch Suite";
+    }
+
+    @Override
+    public void call(PerformanceSuiteCallback callback) {
+        try {
+            long startTime = System.nanoTime();
+            for (int i = 0; i < CALLS_PER_ROUND; i++) {
+                if (legacy) {
+                    newProposalResponseByReflection();
+                } else {
+                    fabricInnerFunction.newProposalResponse(
+                            transactionContext, 200, "", fabricResponse, signedProposal, peer);
+                }
+            }
+            long cost = (System.nanoTime() - startTime) / CALLS_PER_ROUND;
+            callback.onSuccess(cost + " ns/call");
+        } catch (Exception e) {
+            callback.onFailed("Dispatch failed: " + e);
+        }
+    }
+
+    private ProposalResponse newProposalResponseByReflection() throws Exception {
+        try {
+            ProposalResponse proposalResponse =
+                    constructorProposalResponse.newInstance(transactionContext, 200, "");
+            methodSetProposalResponse.invoke(proposalResponse, fabricResponse);
+            methodSetProposal.invoke(proposalResponse, signedProposal);
+            methodSetPeer.invoke(proposalResponse, peer);
+            return proposalResponse;
+        } catch (InvocationTargetException e) {
+            throw new Exception(e.getTargetException().getMessage());
+        }
+    }
+}
@@ -17,6 +17,22 @@ public class PerformanceTest {
                 " \t java -cp conf/:lib/*:plugin/* com.webank.wecross.stub.fabric.performance.PerformanceTest [chainName]  call [count] [qps]");
         System.out.println(
                 " \t java -cp conf/:lib/*:plugin/* com.webank.wecross.stub.fabric.performance.PerformanceTest [chainName]  sendTransaction [count] [qps]");
+        System.out.println(
+                " \t java -cp conf/:lib/*:plugin/* com.webank.wecross.stub.fabric.performance.PerformanceTest [chainName]  buildProposal [count] [qps]");
+        System.out.println(
+                " \t java -cp conf/:lib/*:plugin/* com.webank.wecross.stub.fabric.performance.PerformanceTest [chainName]  buildProposalLegacy [count] [qps]");
+        System.out.println(
+                " \t java -cp conf/:lib/*:plugin/* com.webank.wecross.stub.fabric.performance.PerformanceTest [chainName]  inFlight [count] [qps]");
+        System.out.println(
+                " \t java -cp conf/:lib/*:plugin/* com.webank.wecross.stub.fabric.performance.PerformanceTest [chainName]  inFlightBlocking [count] [qps]");
+        System.out.println(
+                " \t java -cp conf/:lib/*:plugin/* com.webank.wecross.stub.fabric.performance.PerformanceTest [chainName]  innerFunction [count] [qps]");
+        System.out.println(
+                " \t java -cp conf/:lib/*:plugin/* com.webank.wecross.stub.fabric.performance.PerformanceTest [chainName]  innerFunctionLegacy [count] [qps]");
+        System.out.println(
+                " \t java -cp conf/:lib/*:plugin/* com.webank.wecross.stub.fabric.performance.PerformanceTest [chainName]  envelopeHandOff [count] [qps]");
+        System.out.println(
+                " \t java -cp conf/:lib/*:plugin/* com.webank.wecross.stub.fabric.performance.PerformanceTest [chainName]  envelopeHandOffLegacy [count] [qps]");
         System.out.println("Example:");
         System.out.println(
                 " \t java -cp conf/:lib/*:plugin/* com.webank.wecross.stub.fabric.performance.PerformanceTest chains/fabric call 10000 1000");
@@ -51,6 +67,30 @@ public class PerformanceTest {
             case "sendTransaction":
                 sendTransactionTest(chainName, count, qps);
                 exit();
+            case "buildProposal":
+                buildProposalTest(chainName, count, qps, false);
+                exit();
+            case "buildProposalLegacy":
+                buildProposalTest(chainName, count, qps, true);
+                exit();
+            case "inFlight":
+                inFlightTest(chainName, count, qps, false);
+                exit();
+            case "inFlightBlocking":
+                inFlightTest(chainName, count, qps, true);
+                exit();
+            case "innerFunction":
+                innerFunctionTest(chainName, count, qps, false);
+                exit();
+            case "innerFunctionLegacy":
+                innerFunctionTest(chainName, count, qps, true);
+                exit();
+            case "envelopeHandOff":
+                envelopeHandOffTest(chainName, count, qps, false);
+                exit();
+            case "envelopeHandOffLegacy":
+                envelopeHandOffTest(chainName, count, qps, true);
+                exit();
             default:
                 usage();
         }
@@ -78,6 +118,54 @@ public class PerformanceTest {
         }
     }
 
+    public static void buildProposalTest(
+            String chainName, BigInteger count, BigInteger qps, boolean legacy) {
+        try {
+            PerformanceSuite suite = new ProposalBuildSuite(chainName, legacy);
+            PerformanceManager performanceManager = new PerformanceManager(suite, count, qps);
+            performanceManager.run();
+        } catch (Exception e) {
+            System.out.println("Error: " + e + " please check logs/error.log");
+            exit(1);
+        }
+    }
+
+    public static void inFlightTest(
+            String chainName, BigInteger count, BigInteger qps, boolean blocking) {
+        try {
+            PerformanceSuite suite = new InFlightCapacitySuite(chainName, blocking);
+            PerformanceManager performanceManager = new PerformanceManager(suite, count, qps);
+            performanceManager.run();
+        } catch (Exception e) {
+            System.out.println("Error: " + e + " please check logs/error.log");
+            exit(1);
+        }
+    }
+
+    public static void innerFunctionTest(
+            String chainName, BigInteger count, BigInteger qps, boolean legacy) {
+        try {
+            PerformanceSuite suite = new InnerFunctionDispatchSuite(chainName, legacy);
+            PerformanceManager performanceManager = new PerformanceManager(suite, count, qps);
+            performanceManager.run();
+        } catch (Exception e) {
+            System.out.println("Error: " + e + " please check logs/error.log");
+            exit(1);
+        }
+    }
+
+    public static void envelopeHandOffTest(
+            String chainName, BigInteger count, BigInteger qps, boolean legacy) {
+        try {
+            PerformanceSuite suite = new EnvelopeHandOffSuite(chainName, legacy);
+            PerformanceManager performanceManager = new PerformanceManager(suite, count, qps);
+            performanceManager.run();
+        } catch (Exception e) {
+            System.out.println("Error: " + e + " please check logs/error.log");
+            exit(1);
+        }
+    }
+
     private static void exit() {
         System.exit(0);
     }
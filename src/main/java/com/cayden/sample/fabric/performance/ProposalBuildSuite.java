@@ -0,0 +1,109 @@
+package com.cayden.sample.fabric.performance;
+
+import com.cayden.sample.account.FabricAccount;
+import com.cayden.sample.fabric.ChaincodeConnection;
+import com.cayden.sample.fabric.FabricConnection;
+import com.cayden.sample.fabric.FabricConnectionFactory;
+import com.cayden.sample.fabric.ProposalTemplate;
+import com.cayden.sample.fabric.ResourceInfoProperty;
+import com.webank.wecross.stub.ResourceInfo;
+import org.hyperledger.fabric.protos.peer.FabricProposal;
+import org.hyperledger.fabric.sdk.ChaincodeID;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.HFClient;
+import org.hyperledger.fabric.sdk.TransactionProposalRequest;
+import org.hyperledger.fabric.sdk.security.CryptoSuite;
+import org.hyperledger.fabric.sdk.transaction.ProposalBuilder;
+import org.hyperledger.fabric.sdk.transaction.TransactionContext;
+
+import java.security.SecureRandom;
+
+/**
+ * Proposal building only (no signing, no network). The legacy mode is the per-request HFClient,
+ * Channel and TransactionContext path that EndorserRequestFactory used before ProposalTemplate.
+ */
+public class ProposalBuildSuite implements PerformanceSuite {
+    static final int BOUND = Integer.MAX_VALUE - 1;
+    private SecureRandom rand = new SecureRandom();
+
+    private boolean legacy;
+    private FabricAccount account;
+    private ResourceInfo resourceInfo;
+
+    public ProposalBuildSuite(String chainPath, boolean legacy) throws Exception {
+        FabricConnection fabricConnection = FabricConnectionFactory.build(chainPath);
+
+        if (!fabricConnection.getChaincodeMap().containsKey("sacc")) {
+            throw new Exception(
+                    "Resource sacc has not been config, please check chains/fabric/stub.toml");
+        }
+
+        ChaincodeConnection chaincodeConnection = fabricConnection.getChaincodeMap().get("sacc");
+        this.legacy = legacy;
+        this.account = new FabricAccount(chaincodeConnection.getHfClient().getUserContext());
+        this.resourceInfo = chaincodeConnection.getResourceInfo();
+    }
+
+    @Override
+    public String getName() {
+        return legacy ? "Legacy Proposal Build Suite" : "Proposal Template Build Suite";
+    }
+
+    @Override
+    public void call(PerformanceSuiteCallback callback) {
+        try {
+            String key = String.valueOf(rand.nextInt(BOUND));
+            String value = String.valueOf(rand.nextInt(BOUND));
+            String[] args = new String[] {key, value};
+
+            FabricProposal.Proposal proposal;
+            if (legacy) {
+                proposal = buildLegacyProposal("set", args);
+            } else {
+                proposal =
+                        ProposalTemplate.get(account, resourceInfo.getProperties())
+                                .newProposal("set", args);
+            }
+
+            callback.onSuccess(String.valueOf(proposal.getSerializedSize()));
+        } catch (Exception e) {
+            callback.onFailed("Build proposal failed: " + e);
+        }
+    }
+
+    private FabricProposal.Proposal buildLegacyProposal(String fcn, String[] args)
+            throws Exception {
+        TransactionProposalRequest transactionProposalRequest =
+                TransactionProposalRequest.newInstance(account.getUser());
+
+        ResourceInfoProperty properties =
+                ResourceInfoProperty.parseFrom(resourceInfo.getProperties());
+        ChaincodeID chaincodeID =
+                ChaincodeID.newBuilder().setName(properties.getChainCodeName()).build();
+
+        HFClient hfClient = HFClient.createNewInstance();
+        hfClient.setCryptoSuite(CryptoSuite.Factory.getCryptoSuite());
+        hfClient.setUserContext(account.getUser());
+
+        Channel channel = hfClient.newChannel(properties.getChannelName());
+
+        transactionProposalRequest.setChaincodeID(chaincodeID);
+        transactionProposalRequest.setChaincodeLanguage(properties.getChainCodeType());
+        transactionProposalRequest.setFcn(fcn);
+        transactionProposalRequest.setArgs(args);
+        transactionProposalRequest.setProposalWaitTime(properties.getProposalWaitTime());
+
+        TransactionContext transactionContext =
+                new TransactionContext(
+                        channel, account.getUser(), CryptoSuite.Factory.getCryptoSuite());
+
+        transactionContext.verify(transactionProposalRequest.doVerify());
+        transactionContext.setProposalWaitTime(transactionProposalRequest.getProposalWaitTime());
+
+        ProposalBuilder proposalBuilder = ProposalBuilder.newBuilder();
+        proposalBuilder.context(transactionContext);
+        proposalBuilder.request(transactionProposalRequest);
+
+        return proposalBuilder.build();
+    }
+}
@@ -0,0 +1,149 @@
+package com.cayden.sample.fabric;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.common.Common;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransactionOutboxTest {
+
+    @TempDir Path dir;
+
+    @Test
+    void recoversPendingEnvelopes() throws Exception {
+        String path = dir.resolve("outbox.log").toString();
+        TransactionOutbox outbox = new TransactionOutbox(path);
+        outbox.append("tx1", "HelloWeCross", envelope("tx1")).get();
+        outbox.append("tx2", "HelloWeCross", envelope("tx2")).get();
+        outbox.append("tx3", "HelloWorld", envelope("tx3")).get();
+        outbox.markDone("tx2");
+        outbox.close();
+
+        TransactionOutbox reopened = new TransactionOutbox(path);
+        List<TransactionOutbox.Entry> recovered = reopened.getRecovered();
+        reopened.close();
+
+        assertEquals(2, recovered.size());
+        assertEquals("tx1", recovered.get(0).getTxID());
+        assertEquals("HelloWeCross", recovered.get(0).getResource());
+        assertEquals(envelope("tx1"), recovered.get(0).getEnvelope());
+        assertEquals("tx3", recovered.get(1).getTxID());
+        assertEquals("HelloWorld", recovered.get(1).getResource());
+        assertEquals(envelope("tx3"), recovered.get(1).getEnvelope());
+    }
+
+    @Test
+    void dropsTornTail() throws Exception {
+        String path = dir.resolve("outbox.log").toString();
+        TransactionOutbox outbox = new TransactionOutbox(path);
+        outbox.append("tx1", "HelloWeCross", envelope("tx1")).get();
+        outbox.append("tx2", "HelloWeCross", envelope("tx2")).get();
+        outbox.close();
+
+        // a crash in the middle of a record: its header promises more than was written
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.seek(file.length());
+            file.writeInt(100);
+            file.writeInt(0);
+            file.write(new byte[10]);
+        }
+
+        TransactionOutbox reopened = new TransactionOutbox(path);
+        assertEquals(txIDs("tx1", "tx2"), txIDs(reopened.getRecovered()));
+        // the torn bytes are gone, a record appended now is found again
+        reopened.append("tx3", "HelloWeCross", envelope("tx3")).get();
+        reopened.close();
+
+        TransactionOutbox again = new TransactionOutbox(path);
+        assertEquals(txIDs("tx1", "tx2", "tx3"), txIDs(again.getRecovered()));
+        again.close();
+    }
+
+    @Test
+    void stopsAtCorruptRecord() throws Exception {
+        String path = dir.resolve("outbox.log").toString();
+        TransactionOutbox outbox = new TransactionOutbox(path);
+        outbox.append("tx1", "HelloWeCross", envelope("tx1")).get();
+        outbox.append("tx2", "HelloWeCross", envelope("tx2")).get();
+        outbox.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            long last = file.length() - 1;
+            file.seek(last);
+            int value = file.read();
+            file.seek(last);
+            file.write(value ^ 0xff);
+        }
+
+        TransactionOutbox reopened = new TransactionOutbox(path);
+        assertEquals(txIDs("tx1"), txIDs(reopened.getRecovered()));
+        reopened.close();
+    }
+
+    @Test
+    void compactsToPendingRecords() throws Exception {
+        String path = dir.resolve("outbox.log").toString();
+        TransactionOutbox outbox = new TransactionOutbox(path);
+        for (int i = 0; i < 100; i++) {
+            outbox.append("tx" + i, "HelloWeCross", envelope("tx" + i)).get();
+        }
+        for (int i = 1; i < 100; i++) {
+            outbox.markDone("tx" + i);
+        }
+        outbox.close();
+        long before = new File(path).length();
+
+        TransactionOutbox reopened = new TransactionOutbox(path);
+        assertEquals(txIDs("tx0"), txIDs(reopened.getRecovered()));
+        reopened.close();
+        long after = new File(path).length();
+        assertTrue(after * 100 < before, "compacted from " + before + " to " + after + " bytes");
+
+        TransactionOutbox again = new TransactionOutbox(path);
+        assertEquals(txIDs("tx0"), txIDs(again.getRecovered()));
+        assertEquals(after, new File(path).length());
+        again.close();
+    }
+
+    @Test
+    void createsMissingDirectory() throws Exception {
+        String path = dir.resolve("outbox").resolve("fabric.log").toString();
+        TransactionOutbox outbox = new TransactionOutbox(path);
+        outbox.append("tx1", "HelloWeCross", envelope("tx1")).get();
+        outbox.close();
+
+        assertTrue(new File(path).exists());
+    }
+
+    private static Common.Envelope envelope(String txID) {
+        return Common.Envelope.newBuilder()
+                .setPayload(ByteString.copyFromUtf8("payload of " + txID))
+                .setSignature(ByteString.copyFromUtf8("signature of " + txID))
+                .build();
+    }
+
+    private static List<String> txIDs(String... txIDs) {
+        List<String> list = new ArrayList<>();
+        for (String txID : txIDs) {
+            list.add(txID);
+        }
+        return list;
+    }
+
+    private static List<String> txIDs(List<TransactionOutbox.Entry> entries) {
+        List<String> list = new ArrayList<>();
+        for (TransactionOutbox.Entry entry : entries) {
+            list.add(entry.getTxID());
+        }
+        return list;
+    }
+}
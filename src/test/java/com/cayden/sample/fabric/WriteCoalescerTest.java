@@ -0,0 +1,237 @@
+package com.cayden.sample.fabric;
+
+import com.cayden.sample.common.FabricType;
+import com.webank.wecross.stub.Account;
+import com.webank.wecross.stub.Connection;
+import com.webank.wecross.stub.Driver;
+import com.webank.wecross.stub.ResourceInfo;
+import com.webank.wecross.stub.TransactionContext;
+import com.webank.wecross.stub.TransactionException;
+import com.webank.wecross.stub.TransactionRequest;
+import com.webank.wecross.stub.TransactionResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteCoalescerTest {
+    private static final long WINDOW = 60000; // ms, batches in these tests go by size
+
+    private List<Sent> sent = new LinkedList<>();
+    private WriteCoalescer coalescer;
+
+    @Test
+    void splitsBatchResult() {
+        coalescer = new WriteCoalescer(this::send, "set", "setBatch", WINDOW, 3);
+        Answer a = write("k1", "v1");
+        Answer b = write("k2", "v2");
+        Answer c = write("k3", "v3");
+
+        assertEquals(1, sent.size());
+        Sent batch = sent.remove(0);
+        assertEquals("setBatch", batch.request.getData().getMethod());
+        assertArrayEquals(
+                new String[] {"2", "k1", "v1", "k2", "v2", "k3", "v3"},
+                batch.request.getData().getArgs());
+
+        batch.succeed("r1\nr2\nr3");
+        assertSuccess(a, "r1");
+        assertSuccess(b, "r2");
+        assertSuccess(c, "r3");
+    }
+
+    @Test
+    void failsEveryWriteOnUnsplittableResult() {
+        coalescer = new WriteCoalescer(this::send, "set", "setBatch", WINDOW, 3);
+        Answer a = write("k1", "v1");
+        Answer b = write("k2", "v2");
+        Answer c = write("k3", "v3");
+
+        sent.remove(0).succeed("r1\nr2");
+        for (Answer answer : Arrays.asList(a, b, c)) {
+            assertEquals(
+                    FabricType.TransactionResponseStatus.INTERNAL_ERROR,
+                    (int) answer.transactionException.getErrorCode());
+            assertEquals(
+                    FabricType.TransactionResponseStatus.INTERNAL_ERROR,
+                    (int) answer.transactionResponse.getErrorCode());
+            assertNull(answer.transactionResponse.getResult());
+        }
+    }
+
+    @Test
+    void holdsWritesOfKeysInFlight() {
+        coalescer = new WriteCoalescer(this::send, "set", "setBatch", WINDOW, 2);
+        write("k1", "v1");
+        write("k2", "v2");
+        assertEquals(1, sent.size());
+
+        // k1 waits for the first batch, k3 goes on
+        write("k1", "v3");
+        Answer k3 = write("k3", "v4");
+        assertEquals(2, sent.size());
+        Sent single = sent.remove(1);
+        assertEquals("set", single.request.getData().getMethod());
+        assertArrayEquals(new String[] {"k3", "v4"}, single.request.getData().getArgs());
+        single.succeed("r4");
+        assertSuccess(k3, "r4");
+        assertEquals(1, sent.size());
+
+        sent.remove(0).succeed("r1\nr2");
+        assertEquals(1, sent.size());
+        assertArrayEquals(new String[] {"k1", "v3"}, sent.get(0).request.getData().getArgs());
+    }
+
+    @Test
+    void holdsKeysAcrossArities() {
+        coalescer = new WriteCoalescer(this::send, "set", "setBatch", WINDOW, 2);
+        write("k1", "v1");
+        write("k2", "v2");
+        assertEquals(1, sent.size());
+
+        // another queue, but the same key still waits for the first batch
+        write("k1", "v3", "tag");
+        write("k4", "v4", "tag");
+        assertEquals(2, sent.size());
+        assertArrayEquals(
+                new String[] {"k4", "v4", "tag"}, sent.remove(1).request.getData().getArgs());
+
+        sent.remove(0).succeed("r1\nr2");
+        assertEquals(1, sent.size());
+        assertArrayEquals(
+                new String[] {"k1", "v3", "tag"}, sent.get(0).request.getData().getArgs());
+    }
+
+    @Test
+    void resendsRejectedBatchOneByOne() {
+        coalescer = new WriteCoalescer(this::send, "set", "setBatch", WINDOW, 2);
+        Answer a = write("k1", "v1");
+        Answer b = write("k2", "v2");
+
+        sent.remove(0)
+                .fail(FabricType.TransactionResponseStatus.FABRIC_INVOKE_CHAINCODE_FAILED);
+        assertNull(a.transactionException);
+        assertEquals(1, sent.size());
+        Sent first = sent.remove(0);
+        assertArrayEquals(new String[] {"k1", "v1"}, first.request.getData().getArgs());
+        first.fail(FabricType.TransactionResponseStatus.FABRIC_INVOKE_CHAINCODE_FAILED);
+
+        // in call order, the second after the first is answered
+        assertEquals(1, sent.size());
+        Sent second = sent.remove(0);
+        assertArrayEquals(new String[] {"k2", "v2"}, second.request.getData().getArgs());
+        second.succeed("r2");
+
+        assertEquals(
+                FabricType.TransactionResponseStatus.FABRIC_INVOKE_CHAINCODE_FAILED,
+                (int) a.transactionException.getErrorCode());
+        assertSuccess(b, "r2");
+
+        // the keys are free again
+        write("k1", "v3");
+        write("k2", "v4");
+        assertEquals(1, sent.size());
+        assertEquals("setBatch", sent.get(0).request.getData().getMethod());
+    }
+
+    @Test
+    void passesOtherBatchFailuresToEveryWrite() {
+        coalescer = new WriteCoalescer(this::send, "set", "setBatch", WINDOW, 2);
+        Answer a = write("k1", "v1");
+        Answer b = write("k2", "v2");
+
+        sent.remove(0).fail(FabricType.TransactionResponseStatus.FABRIC_EXECUTE_CHAINCODE_FAILED);
+        assertTrue(sent.isEmpty());
+        for (Answer answer : Arrays.asList(a, b)) {
+            assertEquals(
+                    FabricType.TransactionResponseStatus.FABRIC_EXECUTE_CHAINCODE_FAILED,
+                    (int) answer.transactionException.getErrorCode());
+        }
+    }
+
+    private Answer write(String... args) {
+        Answer answer = new Answer();
+        coalescer.send(
+                new TransactionContext<>(
+                        new TransactionRequest("set", args),
+                        account,
+                        new ResourceInfo(),
+                        null),
+                null,
+                answer);
+        return answer;
+    }
+
+    private void send(
+            TransactionContext<TransactionRequest> request,
+            Connection connection,
+            Driver.Callback callback) {
+        sent.add(new Sent(request, callback));
+    }
+
+    private static void assertSuccess(Answer answer, String result) {
+        assertTrue(answer.transactionException.isSuccess());
+        assertArrayEquals(new String[] {result}, answer.transactionResponse.getResult());
+    }
+
+    private static Account account =
+            new Account() {
+                @Override
+                public String getName() {
+                    return "alice";
+                }
+
+                @Override
+                public String getType() {
+                    return "Fabric1.4";
+                }
+
+                @Override
+                public String getIdentity() {
+                    return "alice-identity";
+                }
+            };
+
+    private static class Sent {
+        private TransactionContext<TransactionRequest> request;
+        private Driver.Callback callback;
+
+        Sent(TransactionContext<TransactionRequest> request, Driver.Callback callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+
+        void succeed(String result) {
+            TransactionResponse response = new TransactionResponse();
+            response.setErrorCode(FabricType.TransactionResponseStatus.SUCCESS);
+            response.setResult(new String[] {result});
+            callback.onTransactionResponse(
+                    TransactionException.Builder.newSuccessException(), response);
+        }
+
+        void fail(int errorCode) {
+            callback.onTransactionResponse(
+                    new TransactionException(errorCode, "failed"), new TransactionResponse());
+        }
+    }
+
+    private static class Answer implements Driver.Callback {
+        private TransactionException transactionException;
+        private TransactionResponse transactionResponse;
+
+        @Override
+        public void onTransactionResponse(
+                TransactionException transactionException,
+                TransactionResponse transactionResponse) {
+            this.transactionException = transactionException;
+            this.transactionResponse = transactionResponse;
+        }
+    }
+}